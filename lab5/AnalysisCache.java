@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Analysis results for function bodies, addressed by a hash of the body's structure. Each
+// entry also holds the body's free variables and how the scopes around it showed them, and
+// is only used while they still show them the same way. An edited function gets a new key;
+// every function whose view of it changed misses, while untouched functions keep hitting.
+public class AnalysisCache {
+
+    // What SemanticAnalyzer produced for one function: its diagnostics, the names its analysis
+    // looked up in enclosing scopes with a hash of what it found there, and the lexical
+    // addresses and frame layouts in preorder.
+    public record Entry(List<String> diagnostics, List<String> freeVariables, String dependencies, int[] addresses,
+                        List<String[]> frames) {}
+
+    // Leads every entry file; entries in any other layout read as misses
+    private static final int FORMAT = 0x52414303;
+
+    private final Map<String, Entry> memory = new ConcurrentHashMap<>();
+    private final Path directory; // null keeps the cache in memory only
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public AnalysisCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // The entry for 'key' if its free variables still look as they did when it was recorded.
+    // 'dependencies' hashes what a list of names resolves to in the scope being analyzed.
+    public Entry get(String key, Function<List<String>, String> dependencies) {
+        Entry entry = memory.get(key);
+        if (entry == null && directory != null) {
+            entry = read(directory.resolve(key));
+            if (entry != null) memory.put(key, entry);
+        }
+        if (entry != null && !entry.dependencies.equals(dependencies.apply(entry.freeVariables))) {
+            entry = null; // Recorded where something it depends on was different
+        }
+        (entry != null ? hits : misses).incrementAndGet();
+        return entry;
+    }
+
+    public void put(String key, Entry entry) {
+        memory.put(key, entry);
+        if (directory != null) write(directory.resolve(key), entry);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    // Canonical text of a subtree: node kinds, names, literals and operators, but no spans,
+    // so moving a function within its file does not change its key
+    public static void describe(Parser.Expression expr, StringBuilder out) {
+        if (expr == null) {
+            out.append('_');
+        } else if (expr instanceof Parser.NumberLiteral num) {
+            out.append("N(").append(num.value).append(')');
+        } else if (expr instanceof Parser.StringLiteral str) {
+            out.append("S(").append(str.value.length()).append(':').append(str.value).append(')');
+        } else if (expr instanceof Parser.LogicalLiteral logical) {
+            out.append(logical.value ? "T" : "F");
+        } else if (expr instanceof Parser.Identifier id) {
+            out.append("I(").append(id.name.length()).append(':').append(id.name).append(')');
+        } else if (expr instanceof Parser.BinaryExpression bin) {
+            out.append("B(").append(bin.operator).append(' ');
+            describe(bin.left, out);
+            describe(bin.right, out);
+            out.append(')');
+        } else if (expr instanceof Parser.Assignment assign) {
+            out.append("A(").append(assign.operator).append(' ');
+            describe(assign.target, out);
+            describe(assign.value, out);
+            out.append(')');
+        } else if (expr instanceof Parser.BlockExpression block) {
+            out.append("{");
+            for (Parser.Expression inner : block.expressions) {
+                describe(inner, out);
+            }
+            out.append('}');
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            out.append("If(");
+            describe(ifExpr.condition, out);
+            describe(ifExpr.thenBranch, out);
+            describe(ifExpr.elseBranch, out);
+            out.append(')');
+        } else if (expr instanceof Parser.WhileExpression whileExpr) {
+            out.append("W(");
+            describe(whileExpr.condition, out);
+            describe(whileExpr.body, out);
+            out.append(')');
+        } else if (expr instanceof Parser.ForExpression forExpr) {
+            out.append("For(").append(forExpr.variable.length()).append(':').append(forExpr.variable);
+            describe(forExpr.iterable, out);
+            describe(forExpr.body, out);
+            out.append(')');
+        } else if (expr instanceof Parser.FunctionExpression funcExpr) {
+            out.append("F(");
+            for (String param : funcExpr.parameters) {
+                out.append(param.length()).append(':').append(param).append(',');
+            }
+            describe(funcExpr.body, out);
+            out.append(')');
+        } else if (expr instanceof Parser.FunctionCall call) {
+            out.append("C(");
+            describe(call.function, out);
+            for (Parser.Expression arg : call.arguments) {
+                describe(arg, out);
+            }
+            out.append(')');
+        }
+    }
+
+    // Two independent 64-bit hashes; keys only need to be collision-free in practice,
+    // and a cryptographic digest costs as much as analyzing the function again
+    public static String hash(CharSequence text) {
+        long h1 = 0xCBF29CE484222325L;
+        long h2 = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            h1 = (h1 ^ c) * 0x100000001B3L;
+            h2 = Long.rotateLeft(h2 ^ (c * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+        }
+        HexFormat hex = HexFormat.of();
+        return hex.toHexDigits(mix(h1 ^ text.length())) + hex.toHexDigits(mix(h2));
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    // Nodes that carry analysis results, in the order both recording and replay visit them
+    public static void preorder(Parser.Expression expr, List<Parser.Expression> out) {
+        if (expr == null) return;
+        out.add(expr);
+        if (expr instanceof Parser.BinaryExpression bin) {
+            preorder(bin.left, out);
+            preorder(bin.right, out);
+        } else if (expr instanceof Parser.Assignment assign) {
+            preorder(assign.target, out);
+            preorder(assign.value, out);
+        } else if (expr instanceof Parser.BlockExpression block) {
+            for (Parser.Expression inner : block.expressions) {
+                preorder(inner, out);
+            }
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            preorder(ifExpr.condition, out);
+            preorder(ifExpr.thenBranch, out);
+            preorder(ifExpr.elseBranch, out);
+        } else if (expr instanceof Parser.WhileExpression whileExpr) {
+            preorder(whileExpr.condition, out);
+            preorder(whileExpr.body, out);
+        } else if (expr instanceof Parser.ForExpression forExpr) {
+            preorder(forExpr.iterable, out);
+            preorder(forExpr.body, out);
+        } else if (expr instanceof Parser.FunctionExpression funcExpr) {
+            preorder(funcExpr.body, out);
+        } else if (expr instanceof Parser.FunctionCall call) {
+            preorder(call.function, out);
+            for (Parser.Expression arg : call.arguments) {
+                preorder(arg, out);
+            }
+        }
+    }
+
+    public static Entry record(Parser.FunctionExpression function, List<String> diagnostics, List<String> freeVariables,
+                               String dependencies) {
+        List<Parser.Expression> nodes = new ArrayList<>();
+        preorder(function, nodes);
+        List<Integer> addresses = new ArrayList<>();
+        List<String[]> frames = new ArrayList<>();
+        for (Parser.Expression node : nodes) {
+            if (node instanceof Parser.Identifier id) {
+                addresses.add(id.depth);
+                addresses.add(id.slot);
+            } else if (node instanceof Parser.BlockExpression block) {
+                frames.add(block.locals);
+            } else if (node instanceof Parser.ForExpression forExpr) {
+                frames.add(forExpr.locals);
+            } else if (node instanceof Parser.FunctionExpression funcExpr) {
+                frames.add(funcExpr.locals);
+            }
+        }
+        int[] packed = addresses.stream().mapToInt(Integer::intValue).toArray();
+        return new Entry(List.copyOf(diagnostics), List.copyOf(freeVariables), dependencies, packed, frames);
+    }
+
+    public static void apply(Entry entry, Parser.FunctionExpression function) {
+        List<Parser.Expression> nodes = new ArrayList<>();
+        preorder(function, nodes);
+        int address = 0;
+        int frame = 0;
+        for (Parser.Expression node : nodes) {
+            if (node instanceof Parser.Identifier id) {
+                id.depth = entry.addresses[address++];
+                id.slot = entry.addresses[address++];
+            } else if (node instanceof Parser.BlockExpression block) {
+                block.locals = entry.frames.get(frame++);
+            } else if (node instanceof Parser.ForExpression forExpr) {
+                forExpr.locals = entry.frames.get(frame++);
+            } else if (node instanceof Parser.FunctionExpression funcExpr) {
+                funcExpr.locals = entry.frames.get(frame++);
+            }
+        }
+    }
+
+    private static Entry read(Path file) {
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT) return null;
+            List<String> diagnostics = readStrings(in);
+            List<String> freeVariables = readStrings(in);
+            String dependencies = in.readUTF();
+            int[] addresses = new int[in.readInt()];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = in.readInt();
+            }
+            int frameCount = in.readInt();
+            List<String[]> frames = new ArrayList<>(frameCount);
+            for (int i = 0; i < frameCount; i++) {
+                frames.add(readStrings(in).toArray(new String[0]));
+            }
+            return new Entry(diagnostics, freeVariables, dependencies, addresses, frames);
+        } catch (IOException e) {
+            return null; // A damaged entry is just a miss
+        }
+    }
+
+    private static void write(Path file, Entry entry) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FORMAT);
+                writeStrings(out, entry.diagnostics);
+                writeStrings(out, entry.freeVariables);
+                out.writeUTF(entry.dependencies);
+                out.writeInt(entry.addresses.length);
+                for (int address : entry.addresses) {
+                    out.writeInt(address);
+                }
+                out.writeInt(entry.frames.size());
+                for (String[] frame : entry.frames) {
+                    writeStrings(out, Arrays.asList(frame));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write analysis cache entry " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+}
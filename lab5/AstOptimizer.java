@@ -0,0 +1,378 @@
+import java.util.*;
+
+// Simplifies the analyzed AST before it is interpreted: folds arithmetic and comparisons of literals,
+// prunes branches and loops whose condition is constant, and removes frames: blocks that
+// bind nothing lose theirs, a block making up a whole loop or function body moves its
+// slots into that scope's frame, and loops that cannot leak a frame reuse one for every
+// iteration. return() in tail position becomes its plain value, and calls there are marked
+// as tail calls. Lexical addresses are kept consistent.
+public class AstOptimizer {
+
+    public Parser.Expression optimize(Parser.Expression expr) {
+        if (expr == null) {
+            return null;
+        }
+
+        if (expr instanceof Parser.BinaryExpression bin) {
+            Parser.Expression left = optimize(bin.left);
+            Parser.Expression right = optimize(bin.right);
+            Parser.Expression folded = fold(bin.operator, left, right, bin.span);
+            if (folded != null) return folded;
+            if (left == bin.left && right == bin.right) return bin;
+            return copySpan(new Parser.BinaryExpression(left, bin.operator, right), bin);
+        }
+
+        if (expr instanceof Parser.Assignment assign) {
+            Parser.Expression value = optimize(assign.value);
+            if (value == assign.value) return assign;
+            return copySpan(new Parser.Assignment(assign.target, assign.operator, value), assign);
+        }
+
+        if (expr instanceof Parser.BlockExpression block) {
+            return optimizeBlock(block);
+        }
+
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            Parser.Expression condition = optimize(ifExpr.condition);
+            Boolean truth = constantCondition(condition);
+            if (truth != null) {
+                if (truth) return optimize(ifExpr.thenBranch);
+                if (ifExpr.elseBranch != null) return optimize(ifExpr.elseBranch);
+                return empty(ifExpr);
+            }
+            Parser.Expression thenBranch = optimize(ifExpr.thenBranch);
+            Parser.Expression elseBranch = optimize(ifExpr.elseBranch);
+            if (condition == ifExpr.condition && thenBranch == ifExpr.thenBranch && elseBranch == ifExpr.elseBranch) {
+                return ifExpr;
+            }
+            return copySpan(new Parser.IfExpression(condition, thenBranch, elseBranch), ifExpr);
+        }
+
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            Parser.Expression condition = optimize(whileExpr.condition);
+            if (Boolean.FALSE.equals(constantCondition(condition))) {
+                return empty(whileExpr);
+            }
+            Parser.Expression body = optimize(whileExpr.body);
+            if (condition == whileExpr.condition && body == whileExpr.body) return whileExpr;
+            return copySpan(new Parser.WhileExpression(condition, body), whileExpr);
+        }
+
+        if (expr instanceof Parser.ForExpression forExpr) {
+            Parser.Expression iterable = optimize(forExpr.iterable);
+            Parser.Expression body = optimize(forExpr.body);
+            String[] locals = forExpr.locals;
+            if (body instanceof Parser.BlockExpression block && canMerge(locals, block)) {
+                body = unframe(block, locals.length);
+                locals = concat(locals, block.locals);
+            }
+            // Without a closure nothing holds on to the loop frame past its iteration
+            boolean reusesFrame = locals != null && !createsClosures(body);
+            if (iterable == forExpr.iterable && body == forExpr.body && reusesFrame == forExpr.reusesFrame) {
+                return forExpr;
+            }
+            Parser.ForExpression result = copySpan(new Parser.ForExpression(forExpr.variable, iterable, body), forExpr);
+            result.locals = locals;
+            result.reusesFrame = reusesFrame;
+            return result;
+        }
+
+        if (expr instanceof Parser.FunctionExpression funcExpr) {
+            Parser.BlockExpression body = tailReturns(optimizeBlock(funcExpr.body));
+            String[] locals = funcExpr.locals;
+            if (canMerge(locals, body)) {
+                body = unframe(body, locals.length);
+                locals = concat(locals, body.locals);
+            }
+            if (body == funcExpr.body) return funcExpr;
+            Parser.FunctionExpression result = copySpan(new Parser.FunctionExpression(funcExpr.parameters, body), funcExpr);
+            result.locals = locals;
+            result.pure = funcExpr.pure;
+            return result;
+        }
+
+        if (expr instanceof Parser.FunctionCall call) {
+            List<Parser.Expression> arguments = new ArrayList<>(call.arguments.size());
+            boolean changed = false;
+            for (Parser.Expression arg : call.arguments) {
+                Parser.Expression optimized = optimize(arg);
+                changed |= optimized != arg;
+                arguments.add(optimized);
+            }
+            if (!changed) return call;
+            Parser.FunctionCall result = copySpan(new Parser.FunctionCall(call.function, arguments), call);
+            result.tail = call.tail;
+            result.builtin = call.builtin;
+            return result;
+        }
+
+        return expr;
+    }
+
+    private Parser.BlockExpression optimizeBlock(Parser.BlockExpression block) {
+        List<Parser.Expression> expressions = new ArrayList<>(block.expressions.size());
+        boolean changed = false;
+        for (int i = 0; i < block.expressions.size(); i++) {
+            Parser.Expression inner = block.expressions.get(i);
+            Parser.Expression optimized = optimize(inner);
+            boolean last = i == block.expressions.size() - 1;
+            // An empty block still produces the block's NULL value when it comes last. The
+            // nested block has already lost its frame, so its addresses hold as they are.
+            if (optimized instanceof Parser.BlockExpression nested && bindsNothing(nested)
+                    && (!last || !nested.expressions.isEmpty())) {
+                expressions.addAll(nested.expressions);
+                changed = true;
+            } else {
+                changed |= optimized != inner;
+                expressions.add(optimized);
+            }
+        }
+        if (bindsNothing(block) && block.framed) {
+            return unframe(copySpan(new Parser.BlockExpression(expressions), block), 0);
+        }
+        if (!changed) return block;
+        Parser.BlockExpression result = copySpan(new Parser.BlockExpression(expressions), block);
+        result.locals = block.locals;
+        result.framed = block.framed;
+        return result;
+    }
+
+    // return() as the last thing a function body does is just its value, so it needs no
+    // unwinding, and a call there can run in place of the caller. A guard clause, if (c) return(x) followed by more statements, becomes
+    // if (c) x else { rest }; the rest block has no frame of its own, so addresses hold.
+    private Parser.BlockExpression tailReturns(Parser.BlockExpression block) {
+        List<Parser.Expression> expressions = block.expressions;
+        if (expressions.isEmpty()) return block;
+        List<Parser.Expression> result = new ArrayList<>(expressions);
+        int last = expressions.size() - 1;
+        for (int i = 0; i < last; i++) {
+            if (expressions.get(i) instanceof Parser.IfExpression guard && guard.elseBranch == null
+                    && alwaysReturns(guard.thenBranch)) {
+                Parser.BlockExpression rest = copySpan(
+                    new Parser.BlockExpression(new ArrayList<>(expressions.subList(i + 1, expressions.size()))), guard);
+                rest.locals = new String[0];
+                rest.framed = false;
+                result.subList(i, result.size()).clear();
+                result.add(copySpan(new Parser.IfExpression(guard.condition, guard.thenBranch, rest), guard));
+                last = i;
+                break;
+            }
+        }
+        Parser.Expression tail = tailReturn(result.get(last));
+        if (tail == expressions.get(last) && result.size() == expressions.size()) return block;
+        result.set(last, tail);
+        Parser.BlockExpression copy = copySpan(new Parser.BlockExpression(result), block);
+        copy.locals = block.locals;
+        copy.framed = block.framed;
+        return copy;
+    }
+
+    private Parser.Expression tailReturn(Parser.Expression expr) {
+        if (isReturn(expr)) {
+            Parser.FunctionCall call = (Parser.FunctionCall) expr;
+            return call.arguments.isEmpty() ? empty(call) : tailReturn(call.arguments.get(0));
+        }
+        if (expr instanceof Parser.FunctionCall call && !call.tail && isUserCall(call)) {
+            Parser.FunctionCall result = copySpan(new Parser.FunctionCall(call.function, call.arguments), call);
+            result.tail = true;
+            return result;
+        }
+        if (expr instanceof Parser.BlockExpression block) return tailReturns(block);
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            Parser.Expression thenBranch = tailReturn(ifExpr.thenBranch);
+            Parser.Expression elseBranch = ifExpr.elseBranch == null ? null : tailReturn(ifExpr.elseBranch);
+            if (thenBranch == ifExpr.thenBranch && elseBranch == ifExpr.elseBranch) return ifExpr;
+            return copySpan(new Parser.IfExpression(ifExpr.condition, thenBranch, elseBranch), ifExpr);
+        }
+        return expr;
+    }
+
+    private static boolean alwaysReturns(Parser.Expression expr) {
+        if (isReturn(expr)) return true;
+        if (expr instanceof Parser.BlockExpression block) {
+            return !block.expressions.isEmpty() && alwaysReturns(block.expressions.get(block.expressions.size() - 1));
+        }
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            return ifExpr.elseBranch != null && alwaysReturns(ifExpr.thenBranch) && alwaysReturns(ifExpr.elseBranch);
+        }
+        return false;
+    }
+
+    // The engines run print, return, break, next and builtins themselves, never as calls
+    private static boolean isUserCall(Parser.FunctionCall call) {
+        if (!(call.function instanceof Parser.Identifier id)) return false;
+        return switch (id.name) {
+            case "print", "return", "break", "next" -> false;
+            default -> !call.builtin;
+        };
+    }
+
+    // Calls with more arguments are left to fail at runtime
+    private static boolean isReturn(Parser.Expression expr) {
+        return expr instanceof Parser.FunctionCall call && call.function instanceof Parser.Identifier id
+            && id.name.equals("return") && call.arguments.size() <= 1;
+    }
+
+    // Drops the frame of 'block'. Its slots now start at 'offset' in the frame of the
+    // enclosing scope; a block that binds nothing has no slots to move.
+    private Parser.BlockExpression unframe(Parser.BlockExpression block, int offset) {
+        for (Parser.Expression inner : block.expressions) {
+            shiftDepths(inner, 0, offset);
+        }
+        Parser.BlockExpression result = copySpan(new Parser.BlockExpression(block.expressions), block);
+        result.locals = block.locals;
+        result.framed = false;
+        return result;
+    }
+
+    // A body block runs right after the frame of its loop or function is created, so its
+    // slots can live there, unless a name in both would make name lookup ambiguous
+    private static boolean canMerge(String[] outer, Parser.BlockExpression body) {
+        if (outer == null || body.locals == null || !body.framed) return false;
+        List<String> names = Arrays.asList(outer);
+        for (String name : body.locals) {
+            if (names.contains(name)) return false;
+        }
+        return true;
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static boolean createsClosures(Parser.Expression expr) {
+        if (expr == null) return false;
+        if (expr instanceof Parser.FunctionExpression) return true;
+        if (expr instanceof Parser.Assignment assign) {
+            return createsClosures(assign.target) || createsClosures(assign.value);
+        }
+        if (expr instanceof Parser.BinaryExpression bin) {
+            return createsClosures(bin.left) || createsClosures(bin.right);
+        }
+        if (expr instanceof Parser.BlockExpression block) {
+            for (Parser.Expression inner : block.expressions) {
+                if (createsClosures(inner)) return true;
+            }
+            return false;
+        }
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            return createsClosures(ifExpr.condition) || createsClosures(ifExpr.thenBranch)
+                || createsClosures(ifExpr.elseBranch);
+        }
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            return createsClosures(whileExpr.condition) || createsClosures(whileExpr.body);
+        }
+        if (expr instanceof Parser.ForExpression forExpr) {
+            return createsClosures(forExpr.iterable) || createsClosures(forExpr.body);
+        }
+        if (expr instanceof Parser.FunctionCall call) {
+            if (createsClosures(call.function)) return true;
+            for (Parser.Expression arg : call.arguments) {
+                if (createsClosures(arg)) return true;
+            }
+        }
+        return false;
+    }
+
+    // Only blocks the analyzer has laid out can be proven to bind nothing
+    private static boolean bindsNothing(Parser.BlockExpression block) {
+        return block.locals != null && block.locals.length == 0;
+    }
+
+    // The frame of an unframed block disappears, so every address that reached past it
+    // gets one hop shorter, and its own slots move up by 'offset' in the enclosing frame.
+    // 'scopes' counts frames entered below the unframed block.
+    private void shiftDepths(Parser.Expression expr, int scopes, int offset) {
+        if (expr == null) return;
+        if (expr instanceof Parser.Identifier id) {
+            if (id.slot < 0) return;
+            if (id.depth == scopes) id.slot += offset;
+            else if (id.depth > scopes) id.depth--;
+        } else if (expr instanceof Parser.Assignment assign) {
+            shiftDepths(assign.target, scopes, offset);
+            shiftDepths(assign.value, scopes, offset);
+        } else if (expr instanceof Parser.BinaryExpression bin) {
+            shiftDepths(bin.left, scopes, offset);
+            shiftDepths(bin.right, scopes, offset);
+        } else if (expr instanceof Parser.BlockExpression block) {
+            for (Parser.Expression inner : block.expressions) {
+                shiftDepths(inner, block.framed ? scopes + 1 : scopes, offset);
+            }
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            shiftDepths(ifExpr.condition, scopes, offset);
+            shiftDepths(ifExpr.thenBranch, scopes, offset);
+            shiftDepths(ifExpr.elseBranch, scopes, offset);
+        } else if (expr instanceof Parser.WhileExpression whileExpr) {
+            shiftDepths(whileExpr.condition, scopes, offset);
+            shiftDepths(whileExpr.body, scopes, offset);
+        } else if (expr instanceof Parser.ForExpression forExpr) {
+            shiftDepths(forExpr.iterable, scopes, offset);
+            shiftDepths(forExpr.body, scopes + 1, offset);
+        } else if (expr instanceof Parser.FunctionExpression funcExpr) {
+            shiftDepths(funcExpr.body, scopes + 1, offset);
+        } else if (expr instanceof Parser.FunctionCall call) {
+            shiftDepths(call.function, scopes, offset);
+            for (Parser.Expression arg : call.arguments) {
+                shiftDepths(arg, scopes, offset);
+            }
+        }
+    }
+
+    // Folds arithmetic and comparisons of two literals into the literal the interpreter would compute
+    private Parser.Expression fold(RLexer3.TokenType operator, Parser.Expression left, Parser.Expression right, long span) {
+        Object l = constantValue(left);
+        Object r = constantValue(right);
+        if (l == null || r == null) return null;
+        switch (operator) {
+            case PLUS: case MINUS: case MULTIPLY: case DIVIDE: case LT: case GT:
+                if (!(l instanceof Double && r instanceof Double)) return null; // Left for the interpreter to report
+                break;
+            case EQ:
+                break;
+            default:
+                return null;
+        }
+        Object result = Operations.binary(operator, l, r);
+        Parser.Expression literal = result instanceof Double number
+                ? new Parser.NumberLiteral(Double.toString(number), number)
+                : new Parser.LogicalLiteral((Boolean) result);
+        literal.span = span;
+        return literal;
+    }
+
+    // Truth value of a condition that does not depend on runtime state, or null. Comparisons
+    // of literals have already been folded by the time a condition gets here.
+    private Boolean constantCondition(Parser.Expression condition) {
+        Double number = numberValue(condition);
+        if (number != null) return number != 0;
+        if (condition instanceof Parser.StringLiteral) return true;
+        if (condition instanceof Parser.LogicalLiteral logical) return logical.value;
+        return null;
+    }
+
+    private Object constantValue(Parser.Expression expr) {
+        if (expr instanceof Parser.StringLiteral str) return str.value;
+        if (expr instanceof Parser.LogicalLiteral logical) return logical.value;
+        return numberValue(expr);
+    }
+
+    private static Double numberValue(Parser.Expression expr) {
+        if (!(expr instanceof Parser.NumberLiteral num)) return null;
+        return num.constant; // A malformed literal is left for the interpreter to report
+    }
+
+    // Stands in for a removed expression; evaluates to NULL like the original would
+    private static Parser.BlockExpression empty(Parser.Expression replaced) {
+        Parser.BlockExpression block = copySpan(new Parser.BlockExpression(new ArrayList<>()), replaced);
+        block.locals = new String[0];
+        block.framed = false;
+        return block;
+    }
+
+    private static <T extends Parser.Expression> T copySpan(T node, Parser.Expression original) {
+        node.span = original.span;
+        return node;
+    }
+}
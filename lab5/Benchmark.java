@@ -0,0 +1,547 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+// Rough wall-clock benchmarks for the interpreter pipeline.
+// Run with: java Benchmark [section], where a section may be given by any prefix of its name
+public class Benchmark {
+
+    private static final String VARIABLE_LOOP = """
+        {
+          a <- 1
+          b <- 2
+          s <- 0
+          for (i in 200000) {
+            t <- a * i + b
+            u <- t - a
+            s = s + u / b
+          }
+        }
+        """;
+
+    private static final String CONSTANT_LOOP = """
+        {
+          total <- 0
+          for (i in 200000) {
+            total = total + i * (60 * 60 * 24) / (1000 * 1000)
+            if (2 > 1) total = total - 1 else total = total + 1
+          }
+        }
+        """;
+
+    private static final String WHILE_LOOP = """
+        {
+          n <- 0
+          x <- 0
+          while (n < 300000) {
+            n = n + 1
+            if (x > 1000) x = x - 1000 else x = x + n * 2
+          }
+        }
+        """;
+
+    private static final String SEQUENCE_LOOP = """
+        {
+          s <- 0
+          for (i in 1:1000000) s = s + i
+        }
+        """;
+
+    private static final String FRAME_LOOP = """
+        {
+          s <- 0
+          for (i in 1:1000000) {
+            t <- i * 2
+            s = s + t
+          }
+        }
+        """;
+
+    private static final String CALL_LOOP = """
+        {
+          add <- function(a, b) { a + b }
+          s <- 0
+          for (i in 1:200000) s = add(s, i)
+        }
+        """;
+
+    // Without analysis the callee is looked up by name, five frames out
+    private static final String DEEP_CALLS = """
+        {
+          add <- function(a, b) { a + b }
+          { { { {
+            i <- 0
+            while (i < 200000) i = add(i, 1)
+          } } } }
+        }
+        """;
+
+    // Two functions alternate at the same call site
+    private static final String POLYMORPHIC_CALLS = """
+        {
+          add <- function(a, b) { a + b }
+          sub <- function(a, b) { a - b }
+          s <- 0
+          for (i in 1:200000) {
+            op <- if (i > s) add else sub
+            s = op(s, i)
+          }
+        }
+        """;
+
+    private static final String FIB_RETURN = """
+        {
+          fib <- function(n) {
+            if (n < 2) return(n)
+            return(fib(n - 1) + fib(n - 2))
+          }
+          fib(20)
+        }
+        """;
+
+    private static final String FIB_IMPLICIT = """
+        {
+          fib <- function(n) {
+            if (n < 2) n else fib(n - 1) + fib(n - 2)
+          }
+          fib(20)
+        }
+        """;
+
+    // Deep enough to overflow the Java stack if each call nested
+    private static final String TAIL_SUM = """
+        {
+          total <- function(n, acc) {
+            if (n < 1) acc else total(n - 1, acc + n)
+          }
+          total(200000, 0)
+        }
+        """;
+
+    private static final String LOOP_SUM = """
+        {
+          acc <- 0
+          for (n in 1:200000) acc = acc + n
+          acc
+        }
+        """;
+
+    // Overlapping subproblems: about 370000 calls, but only 121 distinct argument pairs
+    private static final String LATTICE_PATHS = """
+        {
+          paths <- function(i, j) {
+            if (i < 1) 1 else if (j < 1) 1 else paths(i - 1, j) + paths(i, j - 1)
+          }
+          paths(10, 10)
+        }
+        """;
+
+    // The same costly argument, ignored by one callee and read by the other
+    private static final String UNUSED_ARGUMENT = """
+        {
+          cost <- function(n) {
+            t <- 0
+            for (j in 1:50) t = t + j
+            t
+          }
+          check <- function(x, detail) { x }
+          s <- 0
+          for (i in 1:20000) s = s + check(i, cost(i))
+        }
+        """;
+
+    private static final String USED_ARGUMENT = """
+        {
+          cost <- function(n) {
+            t <- 0
+            for (j in 1:50) t = t + j
+            t
+          }
+          check <- function(x, detail) { x + detail }
+          s <- 0
+          for (i in 1:20000) s = s + check(i, cost(i))
+        }
+        """;
+
+    // A numeric helper called often enough to be compiled early in the run
+    private static final String HOT_FUNCTION = """
+        {
+          sumto <- function(n) {
+            t <- 0
+            i <- 1
+            while (i < n + 1) {
+              t = t + i * i
+              i = i + 1
+            }
+            t
+          }
+          s <- 0
+          for (k in 1:5000) s = s + sumto(100)
+        }
+        """;
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+
+        if ("variables".startsWith(filter)) {
+            time("variable-heavy loop, name lookup", () -> run(VARIABLE_LOOP, false, false));
+            time("variable-heavy loop, resolved slots", () -> run(VARIABLE_LOOP, true, false));
+        }
+        if ("constants".startsWith(filter)) {
+            time("constant arithmetic loop, unoptimized", () -> run(CONSTANT_LOOP, true, false));
+            time("constant arithmetic loop, optimized", () -> run(CONSTANT_LOOP, true, true));
+        }
+        if ("engines".startsWith(filter)) {
+            time("variable-heavy loop, tree walker", () -> run(VARIABLE_LOOP, true, true));
+            time("variable-heavy loop, bytecode VM", () -> runVm(VARIABLE_LOOP));
+            time("variable-heavy loop, specializing nodes", () -> runNodes(VARIABLE_LOOP));
+            time("while loop with branches, tree walker", () -> run(WHILE_LOOP, true, true));
+            time("while loop with branches, bytecode VM", () -> runVm(WHILE_LOOP));
+            time("while loop with branches, specializing nodes", () -> runNodes(WHILE_LOOP));
+        }
+        if ("closures".startsWith(filter)) {
+            time("variable-heavy loop, tree walker", () -> runJit(VARIABLE_LOOP, null));
+            time("variable-heavy loop, compiled closures", () -> runClosures(VARIABLE_LOOP));
+            time("while loop with branches, tree walker", () -> runJit(WHILE_LOOP, null));
+            time("while loop with branches, compiled closures", () -> runClosures(WHILE_LOOP));
+            time("fib(20) with return(), tree walker", () -> runJit(FIB_RETURN, null));
+            time("fib(20) with return(), compiled closures", () -> runClosures(FIB_RETURN));
+        }
+        if ("metrics".startsWith(filter)) {
+            // Run once as is and once with -Dlab5.metrics=true to see what counting costs
+            time("variable-heavy loop, tree walker", () -> run(VARIABLE_LOOP, true, true));
+            time("fib(20) with return(), tree walker", () -> run(FIB_RETURN, true, true));
+            if (RuntimeMetrics.ENABLED) System.out.println(RuntimeMetrics.register());
+        }
+        if ("allocation".startsWith(filter)) {
+            // Must not allocate at all: run by hand or in CI, a failure exits with status 1
+            double bytes = marginalAllocation(numericWhile(1000000), numericWhile(2000000), 1000000);
+            System.out.printf("%-45s %10.3f bytes/iteration%n", "numeric while loop, tree walker", bytes);
+            if (bytes > 0) {
+                System.err.println("[Allocation] The numeric while loop allocates " + bytes + " bytes per iteration.");
+                System.exit(1);
+            }
+            allocation("for loop over 1:1e6, tree walker", SEQUENCE_LOOP, 1000000);
+            allocation("for loop with a block local, tree walker", FRAME_LOOP, 1000000);
+        }
+        if ("sequences".startsWith(filter)) {
+            allocation("x <- 1:1e8, per element", "{ x <- 1:1e8 }", 100000000);
+            time("for loop over 1:1e6, tree walker", () -> run(SEQUENCE_LOOP, true, true));
+            time("for loop over 1:1e6, bytecode VM", () -> runVm(SEQUENCE_LOOP));
+            time("for loop over 1:1e6, specializing nodes", () -> runNodes(SEQUENCE_LOOP));
+        }
+        if ("vectors".startsWith(filter)) {
+            // Every op covers 1e7 elements, repeating the kernel on the smaller sizes
+            VectorKernels scalar = new ScalarKernels();
+            String simd = VectorOps.SEQUENTIAL.getClass().getSimpleName();
+            for (int n = 1000; n <= 100000000; n *= 10) {
+                String size = n + " elements";
+                if (Runtime.getRuntime().maxMemory() < 3L * Double.BYTES * n) {
+                    System.out.printf("%-45s skipped, needs a larger -Xmx%n", "x + x, " + size);
+                    continue;
+                }
+                int repeat = Math.max(1, 10000000 / n);
+                int length = n;
+                double[] x = new double[n];
+                double[] out = new double[n];
+                Arrays.setAll(x, i -> i * 0.5);
+                time("x + x, " + size + ", ScalarKernels", () -> {
+                    for (int r = 0; r < repeat; r++) scalar.arithmetic(RLexer3.TokenType.PLUS, x, x, out, 0, length);
+                });
+                time("x + x, " + size + ", " + simd, () -> {
+                    for (int r = 0; r < repeat; r++) VectorOps.SEQUENTIAL.arithmetic(RLexer3.TokenType.PLUS, x, x, out, 0, length);
+                });
+                time("x * 2 > 1, " + size + ", interpreter", () -> {
+                    for (int r = 0; r < repeat; r++) {
+                        VectorOps.binary(RLexer3.TokenType.GT, VectorOps.binary(RLexer3.TokenType.MULTIPLY, new NumericVector(x), 2.0), 1.0);
+                    }
+                });
+            }
+        }
+        if ("parallel".startsWith(filter)) {
+            int n = 20000000;
+            double[] x = new double[n];
+            double[] out = new double[n];
+            Arrays.setAll(x, i -> Math.sin(i));
+            int cores = Runtime.getRuntime().availableProcessors();
+            time("x + x, " + n + " elements, sequential",
+                () -> VectorOps.SEQUENTIAL.arithmetic(RLexer3.TokenType.PLUS, x, x, out, 0, n));
+            time("sum(x), " + n + " elements, sequential",
+                () -> new Reductions(null, Integer.MAX_VALUE).reduce(Reductions.Kind.SUM, x));
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                VectorKernels kernels = new ParallelKernels(VectorOps.SEQUENTIAL, pool, VectorOps.PARALLEL_THRESHOLD);
+                Reductions reductions = new Reductions(pool, VectorOps.PARALLEL_THRESHOLD);
+                time("x + x, " + n + " elements, " + threads + " threads",
+                    () -> kernels.arithmetic(RLexer3.TokenType.PLUS, x, x, out, 0, n));
+                time("sum(x), " + n + " elements, " + threads + " threads",
+                    () -> reductions.reduce(Reductions.Kind.SUM, x));
+                System.out.println("sum(x) on " + threads + " threads = " + reductions.reduce(Reductions.Kind.SUM, x));
+                pool.shutdown();
+            }
+            System.out.println("sum(x) sequential   = " + new Reductions(null, Integer.MAX_VALUE).reduce(Reductions.Kind.SUM, x));
+        }
+        if ("calls".startsWith(filter)) {
+            time("call site five frames deep, name lookup", () -> run(DEEP_CALLS, false, false));
+            time("call loop, tree walker", () -> run(CALL_LOOP, true, true));
+            time("call loop, bytecode VM", () -> runVm(CALL_LOOP));
+            time("call loop, specializing nodes", () -> runNodes(CALL_LOOP));
+            time("polymorphic calls, tree walker", () -> run(POLYMORPHIC_CALLS, true, true));
+            time("polymorphic calls, bytecode VM", () -> runVm(POLYMORPHIC_CALLS));
+            time("polymorphic calls, specializing nodes", () -> runNodes(POLYMORPHIC_CALLS));
+        }
+        if ("returns".startsWith(filter)) {
+            time("fib(20) with return(), tree walker", () -> run(FIB_RETURN, true, true));
+            time("fib(20) by last value, tree walker", () -> run(FIB_IMPLICIT, true, true));
+            time("fib(20) with return(), bytecode VM", () -> runVm(FIB_RETURN));
+            time("fib(20) by last value, bytecode VM", () -> runVm(FIB_IMPLICIT));
+            time("fib(20) with return(), specializing nodes", () -> runNodes(FIB_RETURN));
+            time("fib(20) by last value, specializing nodes", () -> runNodes(FIB_IMPLICIT));
+        }
+        if ("tailcalls".startsWith(filter)) {
+            time("tail recursion 200000 deep, tree walker", () -> run(TAIL_SUM, true, true));
+            time("equivalent loop, tree walker", () -> run(LOOP_SUM, true, true));
+            time("tail recursion 200000 deep, bytecode VM", () -> runVm(TAIL_SUM));
+            time("equivalent loop, bytecode VM", () -> runVm(LOOP_SUM));
+            time("tail recursion 200000 deep, specializing nodes", () -> runNodes(TAIL_SUM));
+            time("equivalent loop, specializing nodes", () -> runNodes(LOOP_SUM));
+        }
+        if ("memo".startsWith(filter)) {
+            time("lattice paths, tree walker", () -> run(LATTICE_PATHS, true, true));
+            time("lattice paths memoized, tree walker", () -> runMemo(LATTICE_PATHS, "tree", 1024));
+            time("lattice paths, bytecode VM", () -> runVm(LATTICE_PATHS));
+            time("lattice paths memoized, bytecode VM", () -> runMemo(LATTICE_PATHS, "vm", 1024));
+            time("lattice paths, specializing nodes", () -> runNodes(LATTICE_PATHS));
+            time("lattice paths memoized, specializing nodes", () -> runMemo(LATTICE_PATHS, "nodes", 1024));
+            time("lattice paths memoized in 16 entries, tree walker", () -> runMemo(LATTICE_PATHS, "tree", 16));
+            System.out.println("1024 entries: " + runMemo(LATTICE_PATHS, "tree", 1024));
+            System.out.println("16 entries:   " + runMemo(LATTICE_PATHS, "tree", 16));
+        }
+        if ("promises".startsWith(filter)) {
+            time("unused costly argument, tree walker", () -> run(UNUSED_ARGUMENT, true, true));
+            time("used costly argument, tree walker", () -> run(USED_ARGUMENT, true, true));
+            time("unused costly argument, bytecode VM", () -> runVm(UNUSED_ARGUMENT));
+            time("used costly argument, bytecode VM", () -> runVm(USED_ARGUMENT));
+            time("unused costly argument, specializing nodes", () -> runNodes(UNUSED_ARGUMENT));
+            time("used costly argument, specializing nodes", () -> runNodes(USED_ARGUMENT));
+        }
+        if ("jit".startsWith(filter)) {
+            time("hot numeric function, tree walker", () -> runJit(HOT_FUNCTION, null));
+            time("hot numeric function, tree walker with JIT", () -> runJit(HOT_FUNCTION, new Jit(Jit.THRESHOLD)));
+            time("hot numeric function, bytecode VM", () -> runVm(HOT_FUNCTION));
+            time("hot numeric function, specializing nodes", () -> runNodes(HOT_FUNCTION));
+        }
+        if ("dispatch".startsWith(filter)) {
+            List<Parser.Expression> nodes = new ArrayList<>();
+            AnalysisCache.preorder(parse(manyFunctions(200)), nodes);
+            AnalysisCache.preorder(parse(VARIABLE_LOOP), nodes);
+            Parser.Expression[] mix = nodes.toArray(new Parser.Expression[0]);
+            time("dispatch " + mix.length + " nodes, instanceof chain", () -> sink += dispatchByInstanceof(mix));
+            time("dispatch " + mix.length + " nodes, visitor", () -> sink += dispatchByVisitor(mix));
+        }
+        if ("analysis".startsWith(filter)) {
+            Parser.Expression deep = parse(deepNesting(300));
+            Parser.Expression wide = parse(wideScope(2000));
+            time("analysis, 300 nested blocks", () -> new SemanticAnalyzer().analyze(deep));
+            time("analysis, 2000 variables in one scope", () -> new SemanticAnalyzer().analyze(wide));
+        }
+        if ("lint".startsWith(filter)) {
+            List<Parser.Expression> files = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                files.add(parse(manyFunctions(200)));
+            }
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                time("lint 16 files x 200 functions, " + threads + " threads",
+                    () -> SemanticAnalyzer.checkFiles(files, pool));
+                pool.shutdown();
+            }
+            AnalysisCache cache = new AnalysisCache(null);
+            SemanticAnalyzer.checkFiles(files, ForkJoinPool.commonPool(), cache);
+            time("lint 16 files x 200 functions, warm cache",
+                () -> SemanticAnalyzer.checkFiles(files, ForkJoinPool.commonPool(), cache));
+        }
+    }
+
+    private static int sink; // Keeps the dispatch loops from being optimized away
+
+    // The order the walkers used to test node types in
+    private static int dispatchByInstanceof(Parser.Expression[] nodes) {
+        int sum = 0;
+        for (Parser.Expression expr : nodes) {
+            if (expr instanceof Parser.NumberLiteral) sum += 1;
+            else if (expr instanceof Parser.StringLiteral) sum += 2;
+            else if (expr instanceof Parser.Identifier) sum += 3;
+            else if (expr instanceof Parser.Assignment) sum += 4;
+            else if (expr instanceof Parser.BinaryExpression) sum += 5;
+            else if (expr instanceof Parser.BlockExpression) sum += 6;
+            else if (expr instanceof Parser.IfExpression) sum += 7;
+            else if (expr instanceof Parser.WhileExpression) sum += 8;
+            else if (expr instanceof Parser.ForExpression) sum += 9;
+            else if (expr instanceof Parser.FunctionExpression) sum += 10;
+            else if (expr instanceof Parser.FunctionCall) sum += 11;
+            else if (expr instanceof Parser.LogicalLiteral) sum += 12;
+        }
+        return sum;
+    }
+
+    private static final Parser.Visitor<Integer> KIND = new Parser.Visitor<>() {
+        public Integer visitNumber(Parser.NumberLiteral num) { return 1; }
+        public Integer visitString(Parser.StringLiteral str) { return 2; }
+        public Integer visitLogical(Parser.LogicalLiteral logical) { return 12; }
+        public Integer visitIdentifier(Parser.Identifier id) { return 3; }
+        public Integer visitAssignment(Parser.Assignment assign) { return 4; }
+        public Integer visitBinary(Parser.BinaryExpression bin) { return 5; }
+        public Integer visitBlock(Parser.BlockExpression block) { return 6; }
+        public Integer visitIf(Parser.IfExpression ifExpr) { return 7; }
+        public Integer visitWhile(Parser.WhileExpression whileExpr) { return 8; }
+        public Integer visitFor(Parser.ForExpression forExpr) { return 9; }
+        public Integer visitFunction(Parser.FunctionExpression funcExpr) { return 10; }
+        public Integer visitCall(Parser.FunctionCall call) { return 11; }
+    };
+
+    private static int dispatchByVisitor(Parser.Expression[] nodes) {
+        int sum = 0;
+        for (Parser.Expression expr : nodes) {
+            sum += expr.accept(KIND);
+        }
+        return sum;
+    }
+
+    // Each level binds one variable and reads a few from enclosing levels
+    private static String numericWhile(int iterations) {
+        return "{\n  n <- 0\n  while (n < " + iterations + ") n = n + 1\n}\n";
+    }
+
+    private static String deepNesting(int depth) {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            code.append("{\n v").append(i).append(" <- 1\n");
+            code.append(" w").append(i).append(" <- v").append(i / 2).append(" + v").append(i / 3).append("\n");
+            code.append(" while (v").append(i).append(" < 0) { t <- v").append(i).append(" }\n");
+        }
+        code.append("}\n".repeat(depth));
+        return code.toString();
+    }
+
+    private static String manyFunctions(int count) {
+        StringBuilder code = new StringBuilder("{\n");
+        for (int i = 0; i < count; i++) {
+            code.append(" f").append(i).append(" <- function(a, b) {\n");
+            for (int j = 0; j < 20; j++) {
+                code.append("  v").append(j).append(" <- a * ").append(j).append(" + b\n");
+                code.append("  if (v").append(j).append(" > a) { w <- v").append(j).append(" - b } else { w <- b }\n");
+            }
+            code.append(" }\n");
+        }
+        return code.append("}\n").toString();
+    }
+
+    private static String wideScope(int width) {
+        StringBuilder code = new StringBuilder("{\n");
+        for (int i = 0; i < width; i++) {
+            code.append(" v").append(i).append(" <- v").append(i / 2).append(" + 1\n");
+        }
+        return code.append("}\n").toString();
+    }
+
+    private static Parser.Expression parse(String code) {
+        return new Parser(new RLexer3(code).lex()).parse();
+    }
+
+    private static void run(String code, boolean analyze, boolean optimize) {
+        Parser.Expression ast = parse(code);
+        if (analyze) {
+            new SemanticAnalyzer().analyze(ast);
+            if (optimize) {
+                ast = new AstOptimizer().optimize(ast);
+            }
+            new TypeInferencer().infer(ast);
+        }
+        new Interpreter().interpret(ast);
+    }
+
+    private static void runVm(String code) {
+        Parser.Expression ast = parse(code);
+        new SemanticAnalyzer().analyze(ast);
+        ast = new AstOptimizer().optimize(ast);
+        new VirtualMachine().interpret(ast);
+    }
+
+    private static void runNodes(String code) {
+        Parser.Expression ast = parse(code);
+        new SemanticAnalyzer().analyze(ast);
+        ast = new AstOptimizer().optimize(ast);
+        new SpecializingInterpreter().interpret(ast);
+    }
+
+    private static void runClosures(String code) {
+        Parser.Expression ast = parse(code);
+        new SemanticAnalyzer().analyze(ast);
+        ast = new AstOptimizer().optimize(ast);
+        new TypeInferencer().infer(ast);
+        new ClosureCompiler().interpret(ast);
+    }
+
+    private static void runJit(String code, Jit jit) {
+        Parser.Expression ast = parse(code);
+        new SemanticAnalyzer().analyze(ast);
+        ast = new AstOptimizer().optimize(ast);
+        new TypeInferencer().infer(ast);
+        new Interpreter().withJit(jit).interpret(ast);
+    }
+
+    private static MemoCache runMemo(String code, String engine, int capacity) {
+        Parser.Expression ast = parse(code);
+        new SemanticAnalyzer().analyze(ast);
+        ast = new AstOptimizer().optimize(ast);
+        new TypeInferencer().infer(ast);
+        MemoCache memo = new MemoCache(capacity);
+        switch (engine) {
+            case "vm" -> new VirtualMachine().withMemo(memo).interpret(ast);
+            case "nodes" -> new SpecializingInterpreter().withMemo(memo).interpret(ast);
+            default -> new Interpreter().withMemo(memo).interpret(ast);
+        }
+        return memo;
+    }
+
+    // Heap bytes the tree walker allocates per loop iteration, once warmed up
+    private static void allocation(String label, String code, int iterations) {
+        System.out.printf("%-45s %10.3f bytes/iteration%n", label, (double) allocatedBytes(code) / iterations);
+    }
+
+    // Bytes per iteration of a loop run 'iterations' more times in 'longer' than in 'shorter'.
+    // What the program allocates once cancels out, so a loop that allocates nothing gives 0.
+    private static double marginalAllocation(String shorter, String longer, int iterations) {
+        long base = allocatedBytes(shorter);
+        return (double) (allocatedBytes(longer) - base) / iterations;
+    }
+
+    private static long allocatedBytes(String code) {
+        Parser.Expression ast = parse(code);
+        new SemanticAnalyzer().analyze(ast);
+        Parser.Expression optimized = new AstOptimizer().optimize(ast);
+        new TypeInferencer().infer(optimized);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < 5; i++) {
+            new Interpreter().interpret(optimized); // Warm up
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        new Interpreter().interpret(optimized);
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private static void time(String label, Runnable body) {
+        for (int i = 0; i < 5; i++) {
+            body.run(); // Warm up
+        }
+        int runs = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            body.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / runs;
+        System.out.printf("%-45s %10.3f ms/op%n", label, millis);
+    }
+}
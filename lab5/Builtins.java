@@ -0,0 +1,64 @@
+import java.util.Set;
+
+// Functions implemented in Java. Every engine evaluates the arguments and calls them
+// through here, so they behave the same on all of them.
+public final class Builtins {
+    private static final Set<String> NAMES = Set.of("sum", "mean", "min", "max");
+    private static final double EXACT_SUM = 0x1p52; // Below 2^53 with room for rounding in the bound
+
+    private Builtins() {}
+
+    public static boolean has(String name) {
+        return NAMES.contains(name);
+    }
+
+    public static Object call(String name, Object[] arguments) {
+        if (arguments.length != 1) {
+            throw new RuntimeException("Function '" + name + "' expects 1 arguments.");
+        }
+        Object x = arguments[0];
+        return switch (name) {
+            case "sum" -> reduce(name, Reductions.Kind.SUM, x);
+            case "min" -> reduce(name, Reductions.Kind.MIN, x);
+            case "max" -> reduce(name, Reductions.Kind.MAX, x);
+            case "mean" -> mean(x);
+            default -> throw new RuntimeException("Function '" + name + "' is not a builtin.");
+        };
+    }
+
+    private static double reduce(String name, Reductions.Kind kind, Object x) {
+        long length = x instanceof VectorValue vector ? vector.length() : 1;
+        if (length == 0 && kind != Reductions.Kind.SUM) {
+            System.err.println("[Warning] No non-missing arguments to " + name + "; returning "
+                + (kind == Reductions.Kind.MIN ? "Inf." : "-Inf."));
+        }
+        if (x instanceof RangeVector range && length > 0) {
+            // Closed forms where they give the bits the reduction tree would: min and max
+            // always, a sum of whole numbers only while every partial sum is exact
+            double last = range.start + (length - 1) * range.step;
+            switch (kind) {
+                case MIN: return Math.min(range.start, last);
+                case MAX: return Math.max(range.start, last);
+                default:
+                    if (range.start == Math.rint(range.start)
+                            && length * (Math.abs(range.start) + Math.abs(last)) < EXACT_SUM) {
+                        return length * (range.start + last) / 2;
+                    }
+                    return VectorOps.REDUCTIONS.reduce(kind, range); // Never expanded
+            }
+        }
+        return VectorOps.REDUCTIONS.reduce(kind, numbers(name, x));
+    }
+
+    private static double mean(Object x) {
+        long length = x instanceof VectorValue vector ? vector.length() : 1;
+        return reduce("mean", Reductions.Kind.SUM, x) / length; // NaN when empty, as in R
+    }
+
+    private static double[] numbers(String name, Object x) {
+        if (x instanceof VectorValue vector) return vector.numbers();
+        if (x instanceof Double d) return new double[] { d };
+        if (x instanceof Boolean b) return new double[] { b ? 1 : 0 };
+        throw new RuntimeException("Invalid argument to '" + name + "': " + (x == null ? "NULL" : x) + ".");
+    }
+}
@@ -0,0 +1,399 @@
+import java.util.*;
+
+// Translates an analyzed expression tree into a Chunk for the VirtualMachine. Every
+// expression leaves exactly one value on the operand stack, like evaluate() returns one.
+public class BytecodeCompiler {
+
+    // Where break and next leave a loop for: the operand stack height and the number of
+    // block frames at the start of its body, and the jumps to patch once the exits are known
+    private static final class Loop {
+        final Loop outer;
+        final int stack;
+        final int frames;
+        final int start; // Where next jumps in a while loop; -1 in a for loop
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> nexts = new ArrayList<>();
+
+        Loop(Loop outer, int stack, int frames, int start) {
+            this.outer = outer;
+            this.stack = stack;
+            this.frames = frames;
+            this.start = start;
+        }
+    }
+
+    private final boolean function; // return() is only compiled inside a function body
+    private int[] code = new int[64];
+    private int length;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private int nullConstant = -1;
+    private int stack;
+    private int maxStack;
+    private int last = -1;  // Start of the most recently emitted instruction
+    private int label = -1; // Most recent jump target; no instruction may be fused across it
+    private int frames;     // Block frames entered at this point
+    private Loop loop;      // Innermost loop around this point, or null
+
+    private BytecodeCompiler(boolean function) {
+        this.function = function;
+    }
+
+    public static Chunk compile(Parser.Expression expr) {
+        return compile(expr, false);
+    }
+
+    public static Chunk compileFunction(Parser.BlockExpression body) {
+        return compile(body, true);
+    }
+
+    private static Chunk compile(Parser.Expression expr, boolean function) {
+        BytecodeCompiler compiler = new BytecodeCompiler(function);
+        compiler.expression(expr);
+        compiler.emit(Chunk.RETURN);
+        return compiler.finish();
+    }
+
+    private Chunk finish() {
+        return new Chunk(Arrays.copyOf(code, length), constants.toArray(), maxStack);
+    }
+
+    private void expression(Parser.Expression expr) {
+        if (expr instanceof Parser.NumberLiteral num) {
+            if (num.constant != null) {
+                emit(Chunk.CONST, constant(num.constant));
+                push();
+            } else {
+                fail(parseError(num.value)); // Reported when reached, like the tree walker does
+            }
+            return;
+        }
+
+        if (expr instanceof Parser.StringLiteral str) {
+            emit(Chunk.CONST, constant(str.value));
+            push();
+            return;
+        }
+
+        if (expr instanceof Parser.LogicalLiteral logical) {
+            emit(Chunk.CONST, constant(logical.value));
+            push();
+            return;
+        }
+
+        if (expr instanceof Parser.Identifier id) {
+            if (id.slot < 0) emit(Chunk.LOAD_NAME, constant(id.name));
+            else if (id.depth == 0) emit(Chunk.LOAD_LOCAL, id.slot, constant(id.name));
+            else emit(Chunk.LOAD, id.depth, id.slot, constant(id.name));
+            push();
+            return;
+        }
+
+        if (expr instanceof Parser.Assignment assign) {
+            if (!(assign.target instanceof Parser.Identifier id)) {
+                fail("Left-hand side of assignment must be identifier.");
+                return;
+            }
+            expression(assign.value);
+            if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT) {
+                if (id.slot >= 0) emit(Chunk.DEFINE, id.slot);
+                else emit(Chunk.DEFINE_NAME, constant(id.name));
+            } else {
+                if (id.slot >= 0) emit(Chunk.ASSIGN, id.depth, id.slot, constant(id.name));
+                else emit(Chunk.ASSIGN_NAME, constant(id.name));
+            }
+            return;
+        }
+
+        if (expr instanceof Parser.BinaryExpression bin) {
+            expression(bin.left);
+            if (bin.operator == RLexer3.TokenType.PLUS && bin.right instanceof Parser.NumberLiteral num
+                    && num.constant != null) {
+                emit(Chunk.ADD_CONST, constant(num.constant));
+                return;
+            }
+            expression(bin.right);
+            switch (bin.operator) {
+                case PLUS: emit(Chunk.ADD); break;
+                case MINUS: emit(Chunk.SUB); break;
+                case MULTIPLY: emit(Chunk.MUL); break;
+                case DIVIDE: emit(Chunk.DIV); break;
+                case LT: emit(Chunk.LT); break;
+                case GT: emit(Chunk.GT); break;
+                case EQ: emit(Chunk.EQ); break;
+                default: emit(Chunk.BINARY, bin.operator.ordinal()); break;
+            }
+            pop();
+            return;
+        }
+
+        if (expr instanceof Parser.BlockExpression block) {
+            if (block.framed) {
+                emit(Chunk.ENTER, constant(block.locals));
+                frames++;
+            }
+            if (block.expressions.isEmpty()) {
+                pushNull();
+            }
+            for (int i = 0; i < block.expressions.size(); i++) {
+                if (i > 0) discard();
+                expression(block.expressions.get(i));
+            }
+            if (block.framed) {
+                emit(Chunk.LEAVE);
+                frames--;
+            }
+            return;
+        }
+
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            int toElse = condition(ifExpr.condition);
+            expression(ifExpr.thenBranch);
+            pop(); // Only one branch runs
+            int toEnd = jump(Chunk.JUMP);
+            patch(toElse);
+            if (ifExpr.elseBranch != null) expression(ifExpr.elseBranch);
+            else pushNull();
+            patch(toEnd);
+            return;
+        }
+
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            int start = label();
+            int toEnd = condition(whileExpr.condition);
+            Loop body = loop = new Loop(loop, stack, frames, start);
+            expression(whileExpr.body);
+            loop = body.outer;
+            discard();
+            emit(Chunk.JUMP, start);
+            patch(toEnd);
+            for (int jump : body.breaks) patch(jump);
+            pushNull();
+            return;
+        }
+
+        if (expr instanceof Parser.ForExpression forExpr) {
+            expression(forExpr.iterable);
+            emit(Chunk.FOR_PREP, forExpr.reusesFrame ? 1 : 0); // Replaces the bound with the loop state
+            int layout = constant(forExpr.locals);
+            int variable = constant(forExpr.variable);
+            emit(Chunk.FOR_NEXT, layout, variable, -1);
+            int toEnd = length - 1;
+            int body = label();
+            Loop context = loop = new Loop(loop, stack, frames, -1);
+            expression(forExpr.body);
+            loop = context.outer;
+            for (int jump : context.nexts) patch(jump);
+            emit(Chunk.FOR_LOOP, layout, variable, body);
+            pop();
+            patch(toEnd); // Both loop instructions drop the loop state on exit
+            for (int jump : context.breaks) patch(jump);
+            pop();
+            pushNull();
+            return;
+        }
+
+        if (expr instanceof Parser.FunctionExpression funcExpr) {
+            emit(Chunk.CLOSURE, constant(funcExpr));
+            push();
+            return;
+        }
+
+        if (expr instanceof Parser.FunctionCall call) {
+            if (!(call.function instanceof Parser.Identifier id)) {
+                fail("Can only call named functions.");
+                return;
+            }
+            if (id.name.equals("print")) {
+                for (Parser.Expression arg : call.arguments) {
+                    expression(arg);
+                    emit(Chunk.PRINT);
+                    pop();
+                }
+                pushNull();
+                return;
+            }
+            if (id.name.equals("return")) {
+                if (!function) {
+                    fail(ReturnValue.NO_FUNCTION);
+                } else if (call.arguments.size() > 1) {
+                    fail("multi-argument returns are not permitted");
+                } else {
+                    if (call.arguments.isEmpty()) pushNull();
+                    else expression(call.arguments.get(0));
+                    emit(Chunk.RETURN);
+                }
+                return;
+            }
+            if (id.name.equals("break") || id.name.equals("next")) {
+                loopExit(id.name.equals("break"));
+                return;
+            }
+            if (call.builtin) {
+                for (Parser.Expression arg : call.arguments) {
+                    expression(arg);
+                }
+                emit(Chunk.CALL_BUILTIN, constant(id.name), call.arguments.size());
+                stack -= call.arguments.size() - 1;
+                maxStack = Math.max(maxStack, stack);
+                return;
+            }
+            // The function and its arity are checked before any argument is evaluated
+            int cache = constant(new InlineCache(id));
+            emit(Chunk.GET_FUNCTION, cache, call.arguments.size());
+            push();
+            // Only function chunks can hand their activation to the callee. Its arguments are
+            // evaluated in place, or promises would chain through every frame it replaces.
+            boolean tail = call.tail && function;
+            Parser.Expression[] deferred = Promise.deferred(call.arguments);
+            for (int i = 0; i < deferred.length; i++) {
+                if (deferred[i] != null && !tail) {
+                    emit(Chunk.PROMISE, constant(compile(deferred[i], function)), constant(deferred[i]), i);
+                    push();
+                } else {
+                    expression(call.arguments.get(i));
+                }
+            }
+            emit(tail ? Chunk.TAIL_CALL : Chunk.CALL, call.arguments.size(), cache);
+            stack -= call.arguments.size();
+            return;
+        }
+
+        fail("Unknown expression type: " + expr.getClass().getSimpleName());
+    }
+
+    // Compiles a condition followed by a jump taken when it is false; returns the
+    // operand to patch with the jump target. Comparisons fuse with the jump.
+    private int condition(Parser.Expression condition) {
+        if (condition instanceof Parser.BinaryExpression bin
+                && (bin.operator == RLexer3.TokenType.LT || bin.operator == RLexer3.TokenType.GT)) {
+            expression(bin.left);
+            expression(bin.right);
+            stack -= 2;
+            return jump(bin.operator == RLexer3.TokenType.LT ? Chunk.JUMP_IF_NOT_LT : Chunk.JUMP_IF_NOT_GT);
+        }
+        expression(condition);
+        pop();
+        return jump(Chunk.JUMP_IF_FALSE);
+    }
+
+    // Jumps out of the innermost loop, or to its next iteration, dropping the operands and
+    // leaving the block frames pushed since its body started. A for loop's own frame and
+    // state stay for FOR_LOOP on next, and are dropped here on break.
+    private void loopExit(boolean isBreak) {
+        if (loop == null) {
+            fail(LoopSignal.NO_LOOP);
+            return;
+        }
+        for (int i = loop.stack; i < stack; i++) emit(Chunk.POP);
+        for (int i = loop.frames; i < frames; i++) emit(Chunk.LEAVE);
+        boolean forLoop = loop.start < 0;
+        if (isBreak) {
+            if (forLoop) {
+                emit(Chunk.LEAVE);
+                emit(Chunk.POP);
+            }
+            loop.breaks.add(jump(Chunk.JUMP));
+        } else if (forLoop) {
+            emit(Chunk.CONST, constant(null)); // The body's value, which FOR_LOOP drops
+            loop.nexts.add(jump(Chunk.JUMP));
+        } else {
+            emit(Chunk.JUMP, loop.start);
+        }
+        push(); // Never actually pushes, but keeps the stack accounting uniform
+    }
+
+    // Drops the value on top of the stack, folding the drop into a store that produced it
+    private void discard() {
+        if (last >= 0 && label != length) {
+            if (code[last] == Chunk.DEFINE) {
+                code[last] = Chunk.DEFINE_POP;
+                pop();
+                return;
+            }
+            if (code[last] == Chunk.ASSIGN) {
+                code[last] = Chunk.ASSIGN_POP;
+                pop();
+                return;
+            }
+        }
+        emit(Chunk.POP);
+        pop();
+    }
+
+    private void fail(String message) {
+        emit(Chunk.FAIL, constant(message));
+        push(); // Never actually pushes, but keeps the stack accounting uniform
+    }
+
+    private void pushNull() {
+        emit(Chunk.CONST, constant(null));
+        push();
+    }
+
+    // Values are shared by equality; node objects and layouts are kept by identity
+    private int constant(Object value) {
+        if (value == null) {
+            if (nullConstant < 0) {
+                nullConstant = constants.size();
+                constants.add(null);
+            }
+            return nullConstant;
+        }
+        if (value instanceof Parser.Expression || value instanceof String[] || value instanceof InlineCache
+                || value instanceof Chunk) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private static String parseError(String value) {
+        try {
+            Double.parseDouble(value);
+            return "Malformed number: " + value;
+        } catch (NumberFormatException e) {
+            return e.getMessage();
+        }
+    }
+
+    private int jump(int opcode) {
+        emit(opcode, -1);
+        return length - 1;
+    }
+
+    private void patch(int operand) {
+        code[operand] = label();
+    }
+
+    private int label() {
+        label = length;
+        return length;
+    }
+
+    private void push() {
+        stack++;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void pop() {
+        stack--;
+    }
+
+    private void emit(int opcode, int... operands) {
+        if (length + 1 + operands.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, length + 1 + operands.length));
+        }
+        last = length;
+        code[length++] = opcode;
+        for (int operand : operands) {
+            code[length++] = operand;
+        }
+    }
+}
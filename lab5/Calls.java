@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// The call protocol of the engines that run a tree, kept here so they cannot drift apart:
+// binding arguments, eagerly or as promises, memoized results, tail calls and the trampoline
+// that runs them, and where return(), break and next stop. An engine supplies how it
+// evaluates an argument and how it runs a body. The bytecode VM keeps its own, on its stack.
+public final class Calls {
+
+    // Runs a function body in a frame with its arguments bound, the way the engine runs code
+    public interface Body {
+        Object run(FunctionValue function, Environment frame);
+    }
+
+    private final TailCall tailCall = new TailCall();
+    private MemoCache memo; // null unless memoization was asked for
+
+    public Calls withMemo(MemoCache memo) {
+        this.memo = memo;
+        return this;
+    }
+
+    // Calls 'function' with one argument per element of 'codes'. Each is either handed to
+    // 'arguments' in the caller's frame now, or passed lazily as Promise.pass decides.
+    public Object call(String name, FunctionValue function, List<?> codes, Parser.Expression[] deferred, boolean tail,
+                       Promise.Evaluator arguments, Environment caller, Body body) {
+        int count = codes.size();
+        if (count != function.parameters.size()) {
+            throw new RuntimeException("Function '" + name + "' expects " + function.parameters.size() + " arguments.");
+        }
+        Environment frame = function.locals != null
+            ? new Environment(function.closure, function.locals) : new Environment(function.closure);
+        Object[] values = memo != null && function.pure ? new Object[count] : null;
+        // Memoized calls need the values for their key, and tail calls would chain promises
+        // through every frame they replace
+        boolean lazy = values == null && !tail;
+        for (int i = 0; i < count; i++) {
+            Object code = codes.get(i);
+            Object value = lazy && deferred[i] != null
+                ? Promise.pass(deferred[i], function, arguments, code, caller) : arguments.evaluate(code, caller);
+            frame.define(function.parameters.get(i), value);
+            if (values != null) values[i] = value;
+        }
+
+        Object key = values != null ? memo.key(function, values) : null;
+        if (key != null) {
+            Object cached = memo.get(key);
+            if (cached != MemoCache.MISS) return cached;
+        }
+        if (tail) return tailCall.set(function, frame, key);
+        Object result = invoke(function, frame, body);
+        if (key != null) memo.put(key, result);
+        return result;
+    }
+
+    private Object invoke(FunctionValue function, Environment frame, Body body) {
+        List<Object> keys = null; // Memo keys of the tail calls run here; they all end with this result
+        Object result;
+        try {
+            result = body.run(function, frame);
+            // Tail calls from the body come back here to run, instead of nesting deeper
+            while (result == tailCall) {
+                if (tailCall.key != null) {
+                    if (keys == null) keys = new ArrayList<>();
+                    keys.add(tailCall.key);
+                }
+                result = body.run(tailCall.function, tailCall.frame);
+            }
+        } catch (ReturnValue ret) {
+            result = ret.value;
+        } catch (LoopSignal signal) {
+            // A loop in the caller must not see a break from the callee
+            throw new RuntimeException(LoopSignal.NO_LOOP);
+        }
+        if (keys != null) {
+            for (Object key : keys) memo.put(key, result);
+        }
+        return result;
+    }
+
+    // 0, 1, ... count - 1: the codes of an engine whose evaluator finds arguments by position
+    public static List<Integer> positions(int count) {
+        List<Integer> positions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            positions.add(i);
+        }
+        return positions;
+    }
+}
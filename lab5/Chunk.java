@@ -0,0 +1,86 @@
+// Compiled bytecode for one expression tree: a flat int[] of opcodes with their operands
+// inline, and the constant pool the operands index into.
+public final class Chunk {
+    // Opcode                           operands
+    public static final int CONST = 0;          // constant
+    public static final int LOAD = 1;           // depth slot name
+    public static final int LOAD_LOCAL = 2;     // slot name            (LOAD with depth 0)
+    public static final int LOAD_NAME = 3;      // name
+    public static final int DEFINE = 4;         // slot                 value stays on the stack
+    public static final int DEFINE_NAME = 5;    // name
+    public static final int ASSIGN = 6;         // depth slot name
+    public static final int ASSIGN_NAME = 7;    // name
+    public static final int ADD = 8;
+    public static final int SUB = 9;
+    public static final int MUL = 10;
+    public static final int DIV = 11;
+    public static final int LT = 12;
+    public static final int GT = 13;
+    public static final int EQ = 14;
+    public static final int BINARY = 15;        // operator ordinal
+    public static final int ADD_CONST = 16;     // constant             (CONST + ADD)
+    public static final int POP = 17;
+    public static final int JUMP = 18;          // target
+    public static final int JUMP_IF_FALSE = 19; // target
+    public static final int JUMP_IF_NOT_LT = 20;// target               (LT + JUMP_IF_FALSE)
+    public static final int JUMP_IF_NOT_GT = 21;// target               (GT + JUMP_IF_FALSE)
+    public static final int ENTER = 22;         // layout               new block frame
+    public static final int LEAVE = 23;
+    public static final int FOR_PREP = 24;      // reuse                1 if iterations share one frame
+    public static final int FOR_NEXT = 25;      // layout name exit     new iteration frame
+    public static final int CLOSURE = 26;       // function
+    public static final int PRINT = 27;
+    public static final int GET_FUNCTION = 28;  // cache argc
+    public static final int CALL = 29;          // argc cache
+    public static final int FAIL = 30;          // message
+    public static final int RETURN = 31;
+    public static final int DEFINE_POP = 32;    // slot                 (DEFINE + POP)
+    public static final int ASSIGN_POP = 33;    // depth slot name      (ASSIGN + POP)
+    public static final int FOR_LOOP = 34;      // layout name body     (POP + LEAVE + FOR_NEXT)
+    public static final int CALL_BUILTIN = 35;  // name argc
+    public static final int TAIL_CALL = 36;     // argc cache           CALL replacing this activation
+    public static final int PROMISE = 37;       // chunk argument index an argument evaluated when first read
+
+    private static final String[] NAMES = {
+        "CONST", "LOAD", "LOAD_LOCAL", "LOAD_NAME", "DEFINE", "DEFINE_NAME", "ASSIGN", "ASSIGN_NAME",
+        "ADD", "SUB", "MUL", "DIV", "LT", "GT", "EQ", "BINARY", "ADD_CONST", "POP", "JUMP",
+        "JUMP_IF_FALSE", "JUMP_IF_NOT_LT", "JUMP_IF_NOT_GT", "ENTER", "LEAVE", "FOR_PREP", "FOR_NEXT",
+        "CLOSURE", "PRINT", "GET_FUNCTION", "CALL", "FAIL", "RETURN", "DEFINE_POP", "ASSIGN_POP", "FOR_LOOP",
+        "CALL_BUILTIN", "TAIL_CALL", "PROMISE"
+    };
+    private static final int[] OPERANDS = {
+        1, 3, 2, 1, 1, 1, 3, 1,
+        0, 0, 0, 0, 0, 0, 0, 1, 1, 0, 1,
+        1, 1, 1, 1, 0, 1, 3,
+        1, 0, 2, 2, 1, 0, 1, 3, 3,
+        2, 2, 3
+    };
+
+    public final int[] code;
+    public final Object[] constants;
+    public final int maxStack;
+
+    public Chunk(int[] code, Object[] constants, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+
+    public static int operandCount(int opcode) {
+        return OPERANDS[opcode];
+    }
+
+    public String disassemble() {
+        StringBuilder out = new StringBuilder();
+        for (int pc = 0; pc < code.length; ) {
+            int opcode = code[pc];
+            out.append(String.format("%4d %-15s", pc, NAMES[opcode]));
+            for (int i = 1; i <= OPERANDS[opcode]; i++) {
+                out.append(' ').append(code[pc + i]);
+            }
+            out.append('\n');
+            pc += 1 + OPERANDS[opcode];
+        }
+        return out.toString();
+    }
+}
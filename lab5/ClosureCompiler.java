@@ -0,0 +1,530 @@
+import java.util.*;
+
+// Alternative execution tier: the analyzed AST is compiled once into a tree of lambdas.
+// Everything the tree walker decides while it runs is settled at compile time instead:
+// which kind of node this is, which operator, the literal's value and the variable's slot.
+// Running the result is then a chain of direct calls with no dispatch on the syntax.
+// Expressions TypeInferencer marked NUMBER also get an unboxed version, guarded like the
+// tree walker's: a variable holding anything else sends that evaluation down the generic one.
+public class ClosureCompiler {
+
+    // Thrown when a value contradicts its inferred type; preallocated and stackless
+    private static final class TypeGuardFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TypeGuardFailure() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final TypeGuardFailure TYPE_GUARD_FAILURE = new TypeGuardFailure();
+
+    // A compiled expression, run in the frame it belongs to
+    @FunctionalInterface
+    interface Code {
+        Object run(Environment env);
+    }
+
+    // A compiled numeric expression: literals, variables and arithmetic, free of side effects
+    // so that a failed guard can start over on the generic code
+    @FunctionalInterface
+    interface NumberCode {
+        double run(Environment env);
+    }
+
+    // A compiled condition, so numeric comparisons need not box their result
+    @FunctionalInterface
+    interface Condition {
+        boolean test(Environment env);
+    }
+
+    private final Environment globals = new Environment(null);
+    // Function bodies are compiled on their first call and shared by every closure of them
+    private final Map<Parser.BlockExpression, Code> bodies = new IdentityHashMap<>();
+    private final Calls calls = new Calls();
+
+    public ClosureCompiler withMemo(MemoCache memo) {
+        calls.withMemo(memo);
+        return this;
+    }
+
+    public void interpret(Parser.Expression root) {
+        try {
+            compile(root).run(globals);
+        } catch (RuntimeException e) {
+            System.err.println("[Runtime Error] " + e.getMessage());
+        } catch (StackOverflowError e) {
+            System.err.println("[Runtime Error] " + Operations.NESTED_TOO_DEEPLY);
+        }
+    }
+
+    Code compile(Parser.Expression expr) {
+        if (expr instanceof Parser.NumberLiteral num) {
+            Object value;
+            if (num.constant != null) {
+                value = num.constant;
+            } else {
+                try {
+                    value = Double.parseDouble(num.value);
+                } catch (NumberFormatException e) {
+                    return fail(e.getMessage());
+                }
+            }
+            return env -> value;
+        }
+
+        if (expr instanceof Parser.StringLiteral str) {
+            String value = str.value;
+            return env -> value;
+        }
+
+        if (expr instanceof Parser.LogicalLiteral logical) {
+            Boolean value = logical.value;
+            return env -> value;
+        }
+
+        if (expr instanceof Parser.Identifier id) {
+            String name = id.name;
+            int depth = id.depth;
+            int slot = id.slot;
+            if (slot < 0) return env -> env.get(name);
+            return env -> env.getAt(depth, slot, name);
+        }
+
+        if (expr instanceof Parser.Assignment assign) {
+            return assignment(assign);
+        }
+
+        if (expr instanceof Parser.BinaryExpression bin) {
+            Code generic = binary(bin.operator, compile(bin.left), compile(bin.right));
+            NumberCode number = bin.type == Type.NUMBER ? number(bin) : null;
+            if (number == null) return generic;
+            return env -> {
+                try {
+                    return number.run(env);
+                } catch (TypeGuardFailure failure) {
+                    return generic.run(env);
+                }
+            };
+        }
+
+        if (expr instanceof Parser.BlockExpression block) {
+            return block(block);
+        }
+
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            Condition condition = condition(ifExpr.condition);
+            Code thenBranch = compile(ifExpr.thenBranch);
+            if (ifExpr.elseBranch == null) return env -> condition.test(env) ? thenBranch.run(env) : null;
+            Code elseBranch = compile(ifExpr.elseBranch);
+            return env -> condition.test(env) ? thenBranch.run(env) : elseBranch.run(env);
+        }
+
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            Condition condition = condition(whileExpr.condition);
+            Code body = effect(whileExpr.body);
+            return env -> {
+                while (condition.test(env)) {
+                    try {
+                        body.run(env);
+                    } catch (LoopSignal signal) {
+                        if (signal == LoopSignal.BREAK) break;
+                    }
+                }
+                return null;
+            };
+        }
+
+        if (expr instanceof Parser.ForExpression forExpr) {
+            return loop(forExpr);
+        }
+
+        if (expr instanceof Parser.FunctionExpression funcExpr) {
+            return env -> new FunctionValue(funcExpr.parameters, funcExpr.locals, funcExpr.body, env, funcExpr.pure);
+        }
+
+        if (expr instanceof Parser.FunctionCall call) {
+            return call(call);
+        }
+
+        return fail("Unknown expression type: " + expr.getClass().getSimpleName());
+    }
+
+    private Code assignment(Parser.Assignment assign) {
+        if (!(assign.target instanceof Parser.Identifier id)) {
+            return fail("Left-hand side of assignment must be identifier.");
+        }
+        Code value = compile(assign.value);
+        String name = id.name;
+        int depth = id.depth;
+        int slot = id.slot;
+        if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT) {
+            if (slot >= 0) {
+                return env -> {
+                    Object result = value.run(env);
+                    env.defineAt(slot, result);
+                    return result;
+                };
+            }
+            return env -> {
+                Object result = value.run(env);
+                env.define(name, result);
+                return result;
+            };
+        }
+        if (slot >= 0) {
+            return env -> {
+                Object result = value.run(env);
+                env.assignAt(depth, slot, name, result);
+                return result;
+            };
+        }
+        return env -> {
+            Object result = value.run(env);
+            env.assign(name, result);
+            return result;
+        };
+    }
+
+    // Two numbers are computed in place; anything else goes through Operations, which also
+    // raises the errors
+    private static Code binary(RLexer3.TokenType operator, Code left, Code right) {
+        switch (operator) {
+            case PLUS:
+                return env -> {
+                    Object l = left.run(env);
+                    Object r = right.run(env);
+                    if (l instanceof Double a && r instanceof Double b) return a + b;
+                    return Operations.binary(operator, l, r);
+                };
+            case MINUS:
+                return env -> {
+                    Object l = left.run(env);
+                    Object r = right.run(env);
+                    if (l instanceof Double a && r instanceof Double b) return a - b;
+                    return Operations.binary(operator, l, r);
+                };
+            case MULTIPLY:
+                return env -> {
+                    Object l = left.run(env);
+                    Object r = right.run(env);
+                    if (l instanceof Double a && r instanceof Double b) return a * b;
+                    return Operations.binary(operator, l, r);
+                };
+            case DIVIDE:
+                return env -> {
+                    Object l = left.run(env);
+                    Object r = right.run(env);
+                    if (l instanceof Double a && r instanceof Double b) return a / b;
+                    return Operations.binary(operator, l, r);
+                };
+            case LT:
+                return env -> {
+                    Object l = left.run(env);
+                    Object r = right.run(env);
+                    if (l instanceof Double a && r instanceof Double b) return a < b;
+                    return Operations.binary(operator, l, r);
+                };
+            case GT:
+                return env -> {
+                    Object l = left.run(env);
+                    Object r = right.run(env);
+                    if (l instanceof Double a && r instanceof Double b) return a > b;
+                    return Operations.binary(operator, l, r);
+                };
+            default:
+                return env -> Operations.binary(operator, left.run(env), right.run(env));
+        }
+    }
+
+    private Condition condition(Parser.Expression expr) {
+        if (expr instanceof Parser.BinaryExpression bin && bin.type == Type.BOOLEAN
+                && bin.left.type == Type.NUMBER && bin.right.type == Type.NUMBER) {
+            NumberCode left = number(bin.left);
+            NumberCode right = number(bin.right);
+            if (left != null && right != null) {
+                Code code = compile(bin);
+                switch (bin.operator) {
+                    case LT:
+                        return env -> {
+                            try {
+                                return left.run(env) < right.run(env);
+                            } catch (TypeGuardFailure failure) {
+                                return Operations.asBoolean(code.run(env));
+                            }
+                        };
+                    case GT:
+                        return env -> {
+                            try {
+                                return left.run(env) > right.run(env);
+                            } catch (TypeGuardFailure failure) {
+                                return Operations.asBoolean(code.run(env));
+                            }
+                        };
+                    case EQ:
+                        // Same result as Double.equals, which the generic path uses
+                        return env -> {
+                            try {
+                                return Double.doubleToLongBits(left.run(env)) == Double.doubleToLongBits(right.run(env));
+                            } catch (TypeGuardFailure failure) {
+                                return Operations.asBoolean(code.run(env));
+                            }
+                        };
+                    default:
+                        break;
+                }
+            }
+        }
+        if (expr instanceof Parser.BinaryExpression bin
+                && (bin.operator == RLexer3.TokenType.LT || bin.operator == RLexer3.TokenType.GT)) {
+            Code left = compile(bin.left);
+            Code right = compile(bin.right);
+            RLexer3.TokenType operator = bin.operator;
+            if (operator == RLexer3.TokenType.LT) {
+                return env -> {
+                    Object l = left.run(env);
+                    Object r = right.run(env);
+                    if (l instanceof Double a && r instanceof Double b) return a < b;
+                    return Operations.asBoolean(Operations.binary(operator, l, r));
+                };
+            }
+            return env -> {
+                Object l = left.run(env);
+                Object r = right.run(env);
+                if (l instanceof Double a && r instanceof Double b) return a > b;
+                return Operations.asBoolean(Operations.binary(operator, l, r));
+            };
+        }
+        Code code = compile(expr);
+        return env -> Operations.asBoolean(code.run(env));
+    }
+
+    // An expression whose value is discarded. A numeric assignment to a slot then stores the
+    // unboxed double, since no caller needs the boxed result.
+    private Code effect(Parser.Expression expr) {
+        if (expr instanceof Parser.Assignment assign && assign.value.type == Type.NUMBER
+                && assign.target instanceof Parser.Identifier id && id.slot >= 0) {
+            NumberCode value = number(assign.value);
+            if (value != null) {
+                Code generic = compile(assign);
+                String name = id.name;
+                int depth = id.depth;
+                int slot = id.slot;
+                if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT) {
+                    return env -> {
+                        double result;
+                        try {
+                            result = value.run(env);
+                        } catch (TypeGuardFailure failure) {
+                            return generic.run(env);
+                        }
+                        env.defineNumberAt(slot, result);
+                        return null;
+                    };
+                }
+                return env -> {
+                    double result;
+                    try {
+                        result = value.run(env);
+                    } catch (TypeGuardFailure failure) {
+                        return generic.run(env);
+                    }
+                    env.assignNumberAt(depth, slot, name, result);
+                    return null;
+                };
+            }
+        }
+        return compile(expr);
+    }
+
+    // The unboxed version of a numeric expression, or null if it has parts that are not
+    private static NumberCode number(Parser.Expression expr) {
+        if (expr instanceof Parser.NumberLiteral num) {
+            double value;
+            if (num.constant != null) {
+                value = num.constant;
+            } else {
+                try {
+                    value = Double.parseDouble(num.value);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return env -> value;
+        }
+        if (expr instanceof Parser.Identifier id) {
+            String name = id.name;
+            int depth = id.depth;
+            int slot = id.slot;
+            if (slot < 0) {
+                return env -> {
+                    if (env.get(name) instanceof Double d) return d;
+                    throw TYPE_GUARD_FAILURE;
+                };
+            }
+            return env -> {
+                Environment frame = env.frameAt(depth);
+                if (frame.isNumber(slot)) return frame.number(slot);
+                if (env.getAt(depth, slot, name) instanceof Double d) return d;
+                throw TYPE_GUARD_FAILURE;
+            };
+        }
+        if (expr instanceof Parser.BinaryExpression bin && bin.type == Type.NUMBER) {
+            NumberCode left = number(bin.left);
+            NumberCode right = number(bin.right);
+            if (left == null || right == null) return null;
+            switch (bin.operator) {
+                case PLUS: return env -> left.run(env) + right.run(env);
+                case MINUS: return env -> left.run(env) - right.run(env);
+                case MULTIPLY: return env -> left.run(env) * right.run(env);
+                case DIVIDE: return env -> left.run(env) / right.run(env);
+                default: return null;
+            }
+        }
+        return null;
+    }
+
+    private Code block(Parser.BlockExpression block) {
+        Code[] body = new Code[block.expressions.size()];
+        for (int i = 0; i < body.length; i++) {
+            Parser.Expression expr = block.expressions.get(i);
+            body[i] = i < body.length - 1 ? effect(expr) : compile(expr);
+        }
+        String[] locals = block.locals;
+        if (block.framed) {
+            return env -> {
+                Environment frame = newFrame(env, locals);
+                Object result = null;
+                for (Code code : body) {
+                    result = code.run(frame);
+                }
+                return result;
+            };
+        }
+        if (body.length == 1) return body[0];
+        return env -> {
+            Object result = null;
+            for (Code code : body) {
+                result = code.run(env);
+            }
+            return result;
+        };
+    }
+
+    private Code loop(Parser.ForExpression forExpr) {
+        Code iterable = compile(forExpr.iterable);
+        Code body = effect(forExpr.body);
+        String variable = forExpr.variable;
+        String[] locals = forExpr.locals;
+        boolean reusesFrame = forExpr.reusesFrame;
+        return env -> {
+            RangeVector range = Operations.loopRange(iterable.run(env));
+            Environment loopScope = null;
+            for (long i = 0; i < range.length; i++) {
+                double value = range.start + i * range.step;
+                if (loopScope != null && reusesFrame && !loopScope.isCaptured()) loopScope.reset();
+                else loopScope = newFrame(env, locals);
+                if (locals != null) loopScope.defineNumberAt(0, value); // The loop variable is declared first
+                else loopScope.define(variable, value);
+                try {
+                    body.run(loopScope);
+                } catch (LoopSignal signal) {
+                    if (signal == LoopSignal.BREAK) break;
+                }
+            }
+            return null;
+        };
+    }
+
+    private Code call(Parser.FunctionCall call) {
+        if (!(call.function instanceof Parser.Identifier id)) {
+            return fail("Can only call named functions.");
+        }
+        String name = id.name;
+        if (name.equals("print")) {
+            Code[] arguments = compileAll(call.arguments);
+            return env -> {
+                for (Code argument : arguments) {
+                    Operations.print(argument.run(env));
+                }
+                return null;
+            };
+        }
+        if (name.equals("return")) {
+            if (call.arguments.size() > 1) return fail("multi-argument returns are not permitted");
+            if (call.arguments.isEmpty()) return env -> { throw new ReturnValue(null); };
+            Code value = compile(call.arguments.get(0));
+            return env -> { throw new ReturnValue(value.run(env)); };
+        }
+        if (name.equals("break")) return env -> { throw LoopSignal.BREAK; };
+        if (name.equals("next")) return env -> { throw LoopSignal.NEXT; };
+        if (call.builtin) {
+            Code[] arguments = compileAll(call.arguments);
+            return env -> {
+                Object[] values = new Object[arguments.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = arguments[i].run(env);
+                }
+                return Builtins.call(name, values);
+            };
+        }
+        return new Call(id, call.tail, compileAll(call.arguments), Promise.deferred(call.arguments));
+    }
+
+    // A call to a user function. Promises for its arguments hold their index here.
+    private final class Call implements Code, Promise.Evaluator, Calls.Body {
+        final String name;
+        final InlineCache cache;
+        final boolean tail;
+        final Code[] arguments;
+        final List<Integer> positions;
+        final Parser.Expression[] deferred;
+
+        Call(Parser.Identifier callee, boolean tail, Code[] arguments, Parser.Expression[] deferred) {
+            this.name = callee.name;
+            this.cache = new InlineCache(callee);
+            this.tail = tail;
+            this.arguments = arguments;
+            this.positions = Calls.positions(arguments.length);
+            this.deferred = deferred;
+        }
+
+        public Object evaluate(Object code, Environment env) {
+            return arguments[(Integer) code].run(env);
+        }
+
+        public Object run(FunctionValue function, Environment frame) {
+            return body(function).run(frame);
+        }
+
+        public Object run(Environment env) {
+            return calls.call(name, cache.function(env), positions, deferred, tail, this, env, this);
+        }
+
+        private Code body(FunctionValue function) {
+            Code body = (Code) cache.target(function.body);
+            if (body == null) {
+                body = bodies.computeIfAbsent(function.body, ClosureCompiler.this::compile);
+                cache.remember(function.body, body);
+            }
+            return body;
+        }
+    }
+
+    private Code[] compileAll(List<Parser.Expression> expressions) {
+        Code[] codes = new Code[expressions.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = compile(expressions.get(i));
+        }
+        return codes;
+    }
+
+    // Raises a runtime error once reached, where the tree walker would reject the expression
+    private static Code fail(String message) {
+        return env -> { throw new RuntimeException(message); };
+    }
+
+    private static Environment newFrame(Environment parent, String[] locals) {
+        return locals != null ? new Environment(parent, locals) : new Environment(parent);
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.*;
+
+// Literal values of one script, built while parsing. Numbers are parsed once, strings are
+// escape-decoded once, and equal constants share a single object, so evaluating a literal
+// is a field read.
+public class ConstantPool {
+    private final Map<Double, Double> numbers = new HashMap<>();
+    private final Map<String, String> strings = new HashMap<>();
+
+    // Null when the text is not a number; evaluating such a literal reports the error
+    public Double number(String text) {
+        Double value = parse(text);
+        if (value == null) return null;
+        Double shared = numbers.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+
+    public String string(String raw) {
+        String value = decode(raw);
+        String shared = strings.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+
+    public int size() {
+        return numbers.size() + strings.size();
+    }
+
+    public static Double parse(String text) {
+        try {
+            return Double.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Resolves the escape sequences the lexer leaves in string tokens. Unknown escapes
+    // are kept as written.
+    public static String decode(String raw) {
+        int backslash = raw.indexOf('\\');
+        if (backslash < 0) return raw;
+        StringBuilder out = new StringBuilder(raw.length());
+        out.append(raw, 0, backslash);
+        for (int i = backslash; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                out.append(c);
+                continue;
+            }
+            char escaped = raw.charAt(++i);
+            switch (escaped) {
+                case 'n': out.append('\n'); break;
+                case 't': out.append('\t'); break;
+                case 'r': out.append('\r'); break;
+                case '0': out.append('\0'); break;
+                case 'a': out.append('\u0007'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'v': out.append('\u000B'); break;
+                case '\\': case '"': case '\'': case '`': case ' ': out.append(escaped); break;
+                case 'x': i = appendCodePoint(raw, i, 2, out); break;
+                case 'u': i = appendCodePoint(raw, i, 4, out); break;
+                case 'U': i = appendCodePoint(raw, i, 8, out); break;
+                default: out.append('\\').append(escaped); break;
+            }
+        }
+        return out.toString();
+    }
+
+    // Reads up to 'digits' hex digits after position i; returns the index of the last one used
+    private static int appendCodePoint(String raw, int i, int digits, StringBuilder out) {
+        int end = i + 1;
+        while (end < raw.length() && end - i - 1 < digits && Character.digit(raw.charAt(end), 16) >= 0) {
+            end++;
+        }
+        if (end == i + 1) {
+            out.append('\\').append(raw.charAt(i)); // No digits: keep as written
+            return i;
+        }
+        int codePoint = Integer.parseInt(raw.substring(i + 1, end), 16);
+        if (Character.isValidCodePoint(codePoint)) {
+            out.appendCodePoint(codePoint);
+        } else {
+            out.append('\\').append(raw, i, end);
+        }
+        return end - 1;
+    }
+}
@@ -1,52 +1,267 @@
 import java.util.*;
 
 public class Environment {
+    // Stands in for a stored null so that an empty slot can mean "not bound yet"
+    private static final Object NULL = new Object();
+    private static final String[] NO_NAMES = new String[0];
+    private static final Object[] NO_SLOTS = new Object[0];
+    // Tags a slot whose value is the double at the same index in numbers
+    private static final Object UNBOXED = new Object();
     private final Environment parent;
-    private final Map<String, Object> variables = new HashMap<>();
-    private final Map<String, FunctionValue> functions = new HashMap<>();
-
-
-
+    private final String[] names; // Slot layout from SemanticAnalyzer, empty when unresolved
+    private final Object[] slots;
+    private double[] numbers; // Allocated on the first unboxed store
+    // Names bound outside the layout, functions included; most frames never need it
+    private Map<String, Object> variables;
+    private int captures; // Unforced promises holding this frame or one below it; while any do, it must not be reset
+    private final RuntimeMetrics.Counters counters; // null unless RuntimeMetrics is enabled
 
     public Environment(Environment parent) {
+        this(parent, NO_NAMES);
+    }
+
+    public Environment(Environment parent, String[] names) {
+        // Frames are made by the thread that runs their parent's code, so they share its counters
+        counters = !RuntimeMetrics.ENABLED ? null : parent != null ? parent.counters : RuntimeMetrics.local();
+        if (RuntimeMetrics.ENABLED) counters.environments++;
         this.parent = parent;
+        this.names = names;
+        this.slots = names.length == 0 ? NO_SLOTS : new Object[names.length];
     }
 
     public Environment getParent() {
         return parent;
     }
-    
+
     public void define(String name, Object value) {
-        variables.put(name, value);
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            defineAt(slot, value);
+        } else {
+            if (variables == null) variables = new HashMap<>();
+            variables.put(name, value);
+        }
+    }
+
+    public void defineAt(int slot, Object value) {
+        slots[slot] = wrap(value);
+    }
+
+    public void defineNumberAt(int slot, double value) {
+        if (numbers == null) numbers = new double[slots.length];
+        numbers[slot] = value;
+        slots[slot] = UNBOXED;
     }
 
     public void assign(String name, Object value) {
-        if (variables.containsKey(name)) {
+        if (RuntimeMetrics.ENABLED) counters.lookups++;
+        update(name, value);
+    }
+
+    // assign() without the count, for the frames a lookup has moved on to
+    private void update(String name, Object value) {
+        if (RuntimeMetrics.ENABLED) counters.framesWalked++;
+        int slot = slotOf(name);
+        if (slot >= 0 && slots[slot] != null) {
+            slots[slot] = wrap(value);
+        } else if (variables != null && variables.containsKey(name)) {
             variables.put(name, value);
         } else if (parent != null) {
-            parent.assign(name, value);
+            parent.update(name, value);
+        } else {
+            throw new RuntimeException("Undefined variable '" + name + "'");
+        }
+    }
+
+    // The slot is only consulted in the frame that declares the name; if it is still
+    // empty there, lookup continues by name in the enclosing frames.
+    public void assignAt(int depth, int slot, String name, Object value) {
+        if (RuntimeMetrics.ENABLED) {
+            counters.lookups++;
+            counters.framesWalked += depth + 1;
+        }
+        Environment env = ancestor(depth);
+        if (env.slots[slot] != null) {
+            env.slots[slot] = wrap(value);
+        } else if (env.parent != null) {
+            env.parent.update(name, value);
+        } else {
+            throw new RuntimeException("Undefined variable '" + name + "'");
+        }
+    }
+
+    public void assignNumberAt(int depth, int slot, String name, double value) {
+        if (RuntimeMetrics.ENABLED) {
+            counters.lookups++;
+            counters.framesWalked += depth + 1;
+        }
+        Environment env = ancestor(depth);
+        if (env.slots[slot] != null) {
+            env.defineNumberAt(slot, value);
+        } else if (env.parent != null) {
+            env.parent.update(name, value);
         } else {
             throw new RuntimeException("Undefined variable '" + name + "'");
         }
     }
 
     public Object get(String name) {
-        if (variables.containsKey(name)) return variables.get(name);
-        if (parent != null) return parent.get(name);
+        if (RuntimeMetrics.ENABLED) counters.lookups++;
+        return find(name);
+    }
+
+    // get() without the count, for the frames a lookup has moved on to
+    private Object find(String name) {
+        if (RuntimeMetrics.ENABLED) counters.framesWalked++;
+        int slot = slotOf(name);
+        if (slot >= 0 && slots[slot] != null) return read(slot);
+        if (variables != null && variables.containsKey(name)) return variable(name);
+        if (parent != null) return parent.find(name);
+        throw new RuntimeException("Undefined variable '" + name + "'");
+    }
+
+    public Object getAt(int depth, int slot, String name) {
+        if (RuntimeMetrics.ENABLED) {
+            counters.lookups++;
+            counters.framesWalked += depth + 1;
+        }
+        Environment env = ancestor(depth);
+        if (env.slots[slot] != null) return env.read(slot);
+        if (env.parent != null) return env.parent.find(name);
         throw new RuntimeException("Undefined variable '" + name + "'");
     }
 
-    public void defineFunction(String name, FunctionValue func) {
-        functions.put(name, func);
+    // Typed access for numeric fast paths: the frame 'depth' hops up, then its slot
+    public Environment frameAt(int depth) {
+        return ancestor(depth);
+    }
+
+    public boolean isNumber(int slot) {
+        Object value = slots[slot];
+        if (value instanceof Promise) value = read(slot);
+        return value == UNBOXED || value instanceof Double;
+    }
+
+    public double number(int slot) {
+        Object value = slots[slot];
+        return value == UNBOXED ? numbers[slot] : (Double) value;
     }
 
-    public FunctionValue getFunction(String name) {
-        if (functions.containsKey(name)) return functions.get(name);
-        if (parent != null) return parent.getFunction(name);
-        throw new RuntimeException("Function '" + name + "' is not defined.");
+    public boolean isBound(int slot) {
+        return slots[slot] != null;
+    }
+
+    // The frame whose binding 'name' resolves to from here, or null
+    public Environment binder(String name) {
+        for (Environment env = this; env != null; env = env.parent) {
+            int slot = env.slotOf(name);
+            if (slot >= 0 && env.slots[slot] != null) return env;
+            if (env.variables != null && env.variables.containsKey(name)) return env;
+        }
+        return null;
+    }
+
+    // What binds a variable as getAt() would find it, but with a promise left unforced and a
+    // number boxed: for passing it on to a call. null if it is unbound, or bound to NULL.
+    public Object held(int depth, int slot, String name) {
+        if (RuntimeMetrics.ENABLED) counters.lookups++;
+        Environment env = this;
+        if (slot >= 0) {
+            env = ancestor(depth);
+            if (env.slots[slot] != null) return env.raw(slot);
+            env = env.parent;
+        }
+        for (; env != null; env = env.parent) {
+            int index = env.slotOf(name);
+            if (index >= 0 && env.slots[index] != null) return env.raw(index);
+            if (env.variables != null && env.variables.containsKey(name)) return env.variables.get(name);
+        }
+        return null;
+    }
+
+    // Value of 'name' in this frame alone; for a frame returned by binder()
+    public Object local(String name) {
+        int slot = slotOf(name);
+        if (slot >= 0 && slots[slot] != null) return read(slot);
+        return variable(name);
     }
 
     public boolean isDefined(String name) {
-        return variables.containsKey(name) || (parent != null && parent.isDefined(name));
+        int slot = slotOf(name);
+        if (slot >= 0 && slots[slot] != null) return true;
+        return (variables != null && variables.containsKey(name)) || (parent != null && parent.isDefined(name));
+    }
+
+    // Marks this frame and the ones around it as held by a promise, until release()
+    public void capture() {
+        for (Environment env = this; env != null; env = env.parent) {
+            env.captures++;
+        }
+    }
+
+    // The promise that captured this frame was forced and let go of it
+    public void release() {
+        for (Environment env = this; env != null; env = env.parent) {
+            env.captures--;
+        }
+    }
+
+    public boolean isCaptured() {
+        return captures > 0;
+    }
+
+    // Empties the frame for another run of the scope it belongs to, for loops whose
+    // body cannot capture it
+    public void reset() {
+        Arrays.fill(slots, null);
+        if (variables != null) variables.clear();
+    }
+
+    private Environment ancestor(int depth) {
+        Environment env = this;
+        for (int i = 0; i < depth; i++) {
+            env = env.parent;
+        }
+        return env;
+    }
+
+    private int slotOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static Object wrap(Object value) {
+        return value == null ? NULL : value;
+    }
+
+    private Object raw(int slot) {
+        Object value = slots[slot];
+        if (value == UNBOXED) return numbers[slot];
+        return value == NULL ? null : value;
+    }
+
+    // Boxes an unboxed number only when a caller needs it as an Object, and forces a promise
+    private Object read(int slot) {
+        Object value = slots[slot];
+        if (value == UNBOXED) {
+            if (RuntimeMetrics.ENABLED) counters.boxes++;
+            return numbers[slot];
+        }
+        if (value instanceof Promise promise) {
+            value = promise.force();
+            slots[slot] = wrap(value);
+        }
+        return value == NULL ? null : value;
+    }
+
+    private Object variable(String name) {
+        Object value = variables.get(name);
+        if (value instanceof Promise promise) {
+            value = promise.force();
+            variables.put(name, value);
+        }
+        return value;
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,22 @@
 import java.util.List;
 
 public class FunctionValue {
-    public final List<RLexer3.Token> parameters;
+    public final List<String> parameters;
+    public final String[] locals; // Frame layout of the parameter scope, null if unresolved
     public final Parser.BlockExpression body;
     public final Environment closure;
+    public final boolean pure; // Its result depends only on its arguments, so it may be memoized
+    // Kept by the tree walker's Jit: calls and loop iterations so far, and the compiled body
+    int invocations;
+    int backEdges;
+    Jit.Compiled compiled;
 
-    public FunctionValue(List<RLexer3.Token> parameters, Parser.BlockExpression body, Environment closure) {
+    public FunctionValue(List<String> parameters, String[] locals, Parser.BlockExpression body, Environment closure,
+                         boolean pure) {
         this.parameters = parameters;
+        this.locals = locals;
         this.body = body;
         this.closure = closure;
+        this.pure = pure;
     }
 }
\ No newline at end of file
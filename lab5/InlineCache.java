@@ -0,0 +1,59 @@
+// State kept by one call site between calls.
+//
+// Resolution: a callee with a lexical address is read straight from its slot; any other is
+// looked up by name on every call. The site keeps no frames, since the tree it belongs to
+// may be run again, or by another engine.
+//
+// Dispatch: the function bodies called from here, up to POLYMORPHIC of them, each with
+// whatever the engine prepared for it. Past that the site is megamorphic and the engine
+// falls back to its own table.
+public final class InlineCache {
+    private static final int POLYMORPHIC = 4;
+
+    private final Parser.Identifier callee;
+    private final Parser.BlockExpression[] bodies = new Parser.BlockExpression[POLYMORPHIC];
+    private final Object[] targets = new Object[POLYMORPHIC];
+    private int size;
+
+    public InlineCache(Parser.Identifier callee) {
+        this.callee = callee;
+    }
+
+    public String name() {
+        return callee.name;
+    }
+
+    public FunctionValue function(Environment env) {
+        String name = callee.name;
+        Environment frame = callee.slot >= 0 ? env.frameAt(callee.depth) : null;
+        Object value;
+        if (frame != null && frame.isBound(callee.slot)) {
+            value = frame.getAt(0, callee.slot, name);
+        } else {
+            // Not bound yet at its address, so lookup continues by name as for variables
+            Environment start = frame != null ? frame.getParent() : env;
+            Environment binder = start == null ? null : start.binder(name);
+            if (binder == null) throw new RuntimeException("Function '" + name + "' is not defined.");
+            value = binder.local(name);
+        }
+        if (!(value instanceof FunctionValue function)) {
+            throw new RuntimeException("'" + name + "' is not a function.");
+        }
+        return function;
+    }
+
+    // What the engine prepared for this body, or null if it was not seen here
+    public Object target(Parser.BlockExpression body) {
+        for (int i = 0; i < size; i++) {
+            if (bodies[i] == body) return targets[i];
+        }
+        return null;
+    }
+
+    public void remember(Parser.BlockExpression body, Object target) {
+        if (size == POLYMORPHIC) return;
+        bodies[size] = body;
+        targets[size] = target;
+        size++;
+    }
+}
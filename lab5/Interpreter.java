@@ -1,162 +1,342 @@
 import java.util.*;
 
-public class Interpreter {
+public class Interpreter implements Parser.Visitor<Object> {
+
+    // Thrown when a value contradicts its inferred type; preallocated and stackless
+    private static final class TypeGuardFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TypeGuardFailure() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final TypeGuardFailure TYPE_GUARD_FAILURE = new TypeGuardFailure();
 
     private final Environment globals = new Environment(null);
     private Environment current = globals;
+    private final Calls calls = new Calls();
+    private Jit jit = new Jit(Jit.THRESHOLD); // null keeps every function interpreted
+    private FunctionValue active; // The function whose body is running, for back-edge counts
+    private final RuntimeMetrics.Counters counters = RuntimeMetrics.ENABLED ? RuntimeMetrics.local() : null;
+    // Evaluates an argument in the caller's frame, at the call or later from its promise
+    private final Promise.Evaluator arguments = (code, env) -> {
+        Environment previous = current;
+        current = env;
+        try {
+            return evaluate((Parser.Expression) code);
+        } finally {
+            current = previous;
+        }
+    };
+    private final Calls.Body bodies = this::body;
+
+    public Interpreter withMemo(MemoCache memo) {
+        calls.withMemo(memo);
+        return this;
+    }
+
+    public Interpreter withJit(Jit jit) {
+        this.jit = jit;
+        return this;
+    }
 
     public void interpret(Parser.Expression root) {
         try {
             evaluate(root);
         } catch (RuntimeException e) {
             System.err.println("[Runtime Error] " + e.getMessage());
+        } catch (StackOverflowError e) {
+            System.err.println("[Runtime Error] " + Operations.NESTED_TOO_DEEPLY);
         }
     }
 
     private Object evaluate(Parser.Expression expr) {
-        if (expr instanceof Parser.NumberLiteral num) {
-            return Double.parseDouble(num.token.value);
-        }
+        return expr.accept(this);
+    }
 
-        if (expr instanceof Parser.StringLiteral str) {
-            return str.token.value;
-        }
+    @Override
+    public Object visitNumber(Parser.NumberLiteral num) {
+        if (num.constant != null) return num.constant;
+        return Double.parseDouble(num.value); // Reports the malformed literal
+    }
 
-        if (expr instanceof Parser.Identifier id) {
-            return current.get(id.token.value);
+    @Override
+    public Object visitString(Parser.StringLiteral str) {
+        return str.value;
+    }
+
+    @Override
+    public Object visitLogical(Parser.LogicalLiteral logical) {
+        return logical.value;
+    }
+
+    @Override
+    public Object visitIdentifier(Parser.Identifier id) {
+        if (id.slot >= 0) return current.getAt(id.depth, id.slot, id.name);
+        return current.get(id.name);
+    }
+
+    @Override
+    public Object visitAssignment(Parser.Assignment assign) {
+        if (!(assign.target instanceof Parser.Identifier id)) {
+            throw new RuntimeException("Left-hand side of assignment must be identifier.");
+        }
+        Object value = evaluate(assign.value);
+        String name = id.name;
+        if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT) {
+            if (id.slot >= 0) current.defineAt(id.slot, value);
+            else current.define(name, value);
+        } else {
+            if (id.slot >= 0) current.assignAt(id.depth, id.slot, name, value);
+            else current.assign(name, value);
         }
+        return value;
+    }
 
-        if (expr instanceof Parser.Assignment assign) {
-            if (!(assign.target instanceof Parser.Identifier id)) {
-                throw new RuntimeException("Left-hand side of assignment must be identifier.");
+    @Override
+    public Object visitBinary(Parser.BinaryExpression bin) {
+        if (bin.type == Type.NUMBER) {
+            try {
+                double value = evaluateNumber(bin);
+                if (RuntimeMetrics.ENABLED) counters.boxes++;
+                return value;
+            } catch (TypeGuardFailure failure) {
+                deoptimize(bin);
             }
-            Object value = evaluate(assign.value);
-            String name = id.token.value;
-            if (assign.operator.type == RLexer3.TokenType.ASSIGN_LEFT) {
-                current.define(name, value);
-            } else {
-                current.assign(name, value);
+        } else if (isNumericComparison(bin)) {
+            try {
+                return evaluateComparison(bin);
+            } catch (TypeGuardFailure failure) {
+                deoptimize(bin);
             }
-            return value;
         }
 
-        if (expr instanceof Parser.BinaryExpression bin) {
-            Object left = evaluate(bin.left);
-            Object right = evaluate(bin.right);
+        Object left = evaluate(bin.left);
+        Object right = evaluate(bin.right);
+        return Operations.binary(bin.operator, left, right);
+    }
 
-            return switch (bin.operator.type) {
-                case PLUS -> (Double) left + (Double) right;
-                case MINUS -> (Double) left - (Double) right;
-                case MULTIPLY -> (Double) left * (Double) right;
-                case DIVIDE -> (Double) left / (Double) right;
-                case LT -> (Double) left < (Double) right;
-                case GT -> (Double) left > (Double) right;
-                case EQ -> left.equals(right);
-                default -> throw new RuntimeException("Unsupported binary operator: " + bin.operator.value);
-            };
+    @Override
+    public Object visitBlock(Parser.BlockExpression block) {
+        // Signals unwinding through here leave restoring current to the loop or call they reach
+        Environment previous = current;
+        if (block.framed) current = newFrame(current, block.locals);
+        Object result = null;
+        int last = block.expressions.size() - 1;
+        for (int i = 0; i < last; i++) {
+            execute(block.expressions.get(i));
         }
+        if (last >= 0) result = evaluate(block.expressions.get(last));
+        current = previous;
+        return result;
+    }
 
-        if (expr instanceof Parser.BlockExpression block) {
-            Environment previous = current;
-            current = new Environment(current);
-            Object result = null;
+    @Override
+    public Object visitIf(Parser.IfExpression ifExpr) {
+        if (evaluateCondition(ifExpr.condition)) {
+            return evaluate(ifExpr.thenBranch);
+        } else if (ifExpr.elseBranch != null) {
+            return evaluate(ifExpr.elseBranch);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public Object visitWhile(Parser.WhileExpression whileExpr) {
+        Environment outer = current;
+        while (evaluateCondition(whileExpr.condition)) {
+            if (active != null) active.backEdges++;
+            if (RuntimeMetrics.ENABLED) counters.loopIterations++;
             try {
-                for (Parser.Expression inner : block.expressions) {
-                    result = evaluate(inner);
-                }
-            } catch (ReturnValue ret) {
-                current = previous;
-                throw ret;
+                execute(whileExpr.body);
+            } catch (LoopSignal signal) {
+                current = outer;
+                if (signal == LoopSignal.BREAK) break;
             }
-            current = previous;
-            return result;
         }
+        return null;
+    }
 
-        if (expr instanceof Parser.IfExpression ifExpr) {
-            Object condition = evaluate(ifExpr.condition);
-            if (asBoolean(condition)) {
-                return evaluate(ifExpr.thenBranch);
-            } else if (ifExpr.elseBranch != null) {
-                return evaluate(ifExpr.elseBranch);
-            } else {
-                return null;
+    @Override
+    public Object visitFor(Parser.ForExpression forExpr) {
+        RangeVector range = Operations.loopRange(evaluate(forExpr.iterable));
+        Environment outer = current;
+        Environment loopScope = null;
+        for (long i = 0; i < range.length; i++) {
+            double value = range.start + i * range.step;
+            if (loopScope != null && forExpr.reusesFrame && !loopScope.isCaptured()) loopScope.reset();
+            else loopScope = newFrame(current, forExpr.locals);
+            if (forExpr.locals != null) loopScope.defineNumberAt(0, value); // The loop variable is declared first
+            else loopScope.define(forExpr.variable, value);
+            current = loopScope;
+            if (active != null) active.backEdges++;
+            if (RuntimeMetrics.ENABLED) counters.loopIterations++;
+            try {
+                execute(forExpr.body);
+            } catch (LoopSignal signal) {
+                if (signal == LoopSignal.BREAK) {
+                    current = outer;
+                    break;
+                }
             }
+            current = outer;
         }
+        return null;
+    }
 
-        if (expr instanceof Parser.WhileExpression whileExpr) {
-            while (asBoolean(evaluate(whileExpr.condition))) {
-                evaluate(whileExpr.body);
-            }
-            return null;
+    @Override
+    public Object visitFunction(Parser.FunctionExpression funcExpr) {
+        return new FunctionValue(funcExpr.parameters, funcExpr.locals, funcExpr.body, current, funcExpr.pure);
+    }
+
+    @Override
+    public Object visitCall(Parser.FunctionCall call) {
+        if (!(call.function instanceof Parser.Identifier id)) {
+            throw new RuntimeException("Can only call named functions.");
         }
 
-        if (expr instanceof Parser.ForExpression forExpr) {
-            Object iterable = evaluate(forExpr.iterable);
-            if (!(iterable instanceof Double)) {
-                throw new RuntimeException("Only numeric for-loops are supported.");
-            }
-            int max = ((Double) iterable).intValue();
-            for (int i = 1; i <= max; i++) {
-                Environment loopScope = new Environment(current);
-                loopScope.define(forExpr.variable.value, (double) i);
-                current = loopScope;
-                evaluate(forExpr.body);
-                current = loopScope.getParent();
+        String funcName = id.name;
+
+        if (funcName.equals("print")) {
+            for (Parser.Expression arg : call.arguments) {
+                Object value = evaluate(arg);
+                Operations.print(value);
             }
             return null;
         }
 
-        if (expr instanceof Parser.FunctionExpression funcExpr) {
-            return new FunctionValue(funcExpr.parameters, funcExpr.body, current);
+        if (funcName.equals("return")) {
+            Object value = returnValue(call);
+            if (RuntimeMetrics.ENABLED) counters.returns++;
+            throw new ReturnValue(value);
         }
+        if (funcName.equals("break")) throw LoopSignal.BREAK;
+        if (funcName.equals("next")) throw LoopSignal.NEXT;
 
-        if (expr instanceof Parser.FunctionCall call) {
-            if (!(call.function instanceof Parser.Identifier id)) {
-                throw new RuntimeException("Can only call named functions.");
+        if (call.builtin) {
+            Object[] arguments = new Object[call.arguments.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = evaluate(call.arguments.get(i));
             }
+            return Builtins.call(funcName, arguments);
+        }
 
-            String funcName = id.token.value;
+        if (call.cache == null) call.cache = new InlineCache(id);
+        FunctionValue function = call.cache.function(current);
+        if (call.deferred == null) call.deferred = Promise.deferred(call.arguments);
+        Environment previous = current;
+        FunctionValue caller = active;
+        Object result = calls.call(funcName, function, call.arguments, call.deferred, call.tail, arguments, current, bodies);
+        current = previous;
+        active = caller;
+        return result;
+    }
 
-            if (funcName.equals("print")) {
-                for (Parser.Expression arg : call.arguments) {
-                    Object value = evaluate(arg);
-                    System.out.println(value);
-                }
-                return null;
+    // The value of the body's last expression, as in R; from compiled code once it is hot.
+    // Every activation passes through here, tail calls included, so profilers hook in here.
+    protected Object body(FunctionValue function, Environment frame) {
+        if (RuntimeMetrics.ENABLED) counters.calls++;
+        Jit.Compiled code = jit != null ? jit.enter(function) : null;
+        if (code != null) {
+            try {
+                return code.call(frame);
+            } catch (Jit.Deoptimization deoptimization) {
+                jit.deoptimized(function); // Nothing has happened that running it again would repeat
             }
+        }
+        current = frame;
+        active = function;
+        return evaluate(function.body);
+    }
+
+    private Object returnValue(Parser.FunctionCall call) {
+        if (call.arguments.size() > 1) throw new RuntimeException("multi-argument returns are not permitted");
+        return call.arguments.isEmpty() ? null : evaluate(call.arguments.get(0));
+    }
 
-            FunctionValue function = current.getFunction(funcName);
-            if (call.arguments.size() != function.parameters.size()) {
-                throw new RuntimeException("Function '" + funcName + "' expects " + function.parameters.size() + " arguments.");
+    // Evaluates an expression whose value is discarded. A numeric assignment to a slot
+    // then stores the unboxed double, since no caller needs the boxed result.
+    private void execute(Parser.Expression expr) {
+        if (expr instanceof Parser.Assignment assign && assign.value.type == Type.NUMBER
+                && assign.target instanceof Parser.Identifier id && id.slot >= 0) {
+            try {
+                double value = evaluateNumber(assign.value);
+                if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT) current.defineNumberAt(id.slot, value);
+                else current.assignNumberAt(id.depth, id.slot, id.name, value);
+                return;
+            } catch (TypeGuardFailure failure) {
+                deoptimize(assign.value);
             }
+        }
+        evaluate(expr);
+    }
 
-            Environment functionEnv = new Environment(function.closure);
-            for (int i = 0; i < function.parameters.size(); i++) {
-                String paramName = function.parameters.get(i).value;
-                Object argValue = evaluate(call.arguments.get(i));
-                functionEnv.define(paramName, argValue);
+    // Primitive path for expressions inferred as NUMBER. Only literals, variables and
+    // arithmetic are evaluated here, none of which have side effects, so a failed guard
+    // can abandon the attempt and re-evaluate the whole expression generically.
+    private double evaluateNumber(Parser.Expression expr) {
+        if (expr instanceof Parser.NumberLiteral num) {
+            if (num.constant != null) return num.constant;
+            return Double.parseDouble(num.value);
+        }
+        if (expr instanceof Parser.Identifier id) {
+            if (id.slot >= 0) {
+                Environment frame = current.frameAt(id.depth);
+                if (frame.isNumber(id.slot)) return frame.number(id.slot);
+            }
+            Object value = id.slot >= 0 ? current.getAt(id.depth, id.slot, id.name) : current.get(id.name);
+            if (value instanceof Double d) return d;
+            throw TYPE_GUARD_FAILURE;
+        }
+        if (expr instanceof Parser.BinaryExpression bin && bin.type == Type.NUMBER) {
+            double left = evaluateNumber(bin.left);
+            double right = evaluateNumber(bin.right);
+            switch (bin.operator) {
+                case PLUS: return left + right;
+                case MINUS: return left - right;
+                case MULTIPLY: return left * right;
+                case DIVIDE: return left / right;
+                default: break;
             }
+        }
+        throw TYPE_GUARD_FAILURE;
+    }
 
-            Environment previous = current;
-            current = functionEnv;
+    private boolean evaluateComparison(Parser.BinaryExpression bin) {
+        double left = evaluateNumber(bin.left);
+        double right = evaluateNumber(bin.right);
+        return switch (bin.operator) {
+            case LT -> left < right;
+            case GT -> left > right;
+            // Same result as Double.equals, which the generic path uses
+            case EQ -> Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            default -> throw TYPE_GUARD_FAILURE;
+        };
+    }
 
+    private boolean evaluateCondition(Parser.Expression condition) {
+        if (condition instanceof Parser.BinaryExpression bin && isNumericComparison(bin)) {
             try {
-                evaluate(function.body);
-            } catch (ReturnValue ret) {
-                current = previous;
-                return ret.value;
+                return evaluateComparison(bin);
+            } catch (TypeGuardFailure failure) {
+                deoptimize(bin);
             }
-
-            current = previous;
-            return null;
         }
+        return Operations.asBoolean(evaluate(condition));
+    }
+
+    private static boolean isNumericComparison(Parser.BinaryExpression bin) {
+        return bin.type == Type.BOOLEAN && bin.left.type == Type.NUMBER && bin.right.type == Type.NUMBER;
+    }
 
-        throw new RuntimeException("Unknown expression type: " + expr.getClass().getSimpleName());
+    // The inferred type was wrong; drop the annotation so this node stays generic
+    private static void deoptimize(Parser.Expression expr) {
+        expr.type = Type.UNKNOWN;
     }
 
-    private boolean asBoolean(Object value) {
-        if (value instanceof Boolean b) return b;
-        if (value instanceof Double d) return d != 0;
-        return value != null;
+    private static Environment newFrame(Environment parent, String[] locals) {
+        return locals != null ? new Environment(parent, locals) : new Environment(parent);
     }
 }
\ No newline at end of file
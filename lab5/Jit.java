@@ -0,0 +1,92 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// The tree walker's second tier. Each FunctionValue counts its calls and the loop iterations
+// run in its body; once the sum crosses the threshold, the body is compiled by JitCompiler
+// into a hidden class and later calls run that instead. Compiled code keeps every variable in
+// a JVM double, so it only exists for bodies that provably compute with numbers alone. The
+// one thing it cannot prove is that the arguments are numbers: a parameter that turns out
+// to hold anything else deoptimizes the call, which then runs again in the tree walker.
+// Compiled code has no side effects, so running the body from the start is safe.
+public final class Jit {
+    public static final int THRESHOLD = 1000;
+    private static final int MAX_DEOPTIMIZATIONS = 3; // Per body, before it stays interpreted
+
+    // What the hidden classes implement: runs the body in a frame with the arguments bound
+    public interface Compiled {
+        Object call(Environment frame);
+    }
+
+    // Thrown by compiled code when a parameter is not a number; preallocated and stackless
+    public static final class Deoptimization extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Deoptimization() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Deoptimization DEOPTIMIZATION = new Deoptimization();
+    private static final Compiled NOT_COMPILABLE = frame -> null;
+
+    private final int threshold;
+    // Code is shared by every closure of a body; NOT_COMPILABLE marks bodies not to try again
+    private final Map<Parser.BlockExpression, Compiled> bodies = new IdentityHashMap<>();
+    private final Map<Parser.BlockExpression, Integer> deoptimizations = new HashMap<>();
+    private int compiled;
+
+    public Jit(int threshold) {
+        this.threshold = threshold;
+    }
+
+    // Counts a call; the compiled body once the function is hot, otherwise null
+    public Compiled enter(FunctionValue function) {
+        Compiled code = function.compiled;
+        if (code == null) {
+            if (++function.invocations + function.backEdges < threshold) return null;
+            code = bodies.get(function.body);
+            if (code == null) {
+                code = compile(function);
+                bodies.put(function.body, code);
+            }
+            function.compiled = code;
+        }
+        return code == NOT_COMPILABLE ? null : code;
+    }
+
+    public void deoptimized(FunctionValue function) {
+        if (deoptimizations.merge(function.body, 1, Integer::sum) >= MAX_DEOPTIMIZATIONS) {
+            bodies.put(function.body, NOT_COMPILABLE);
+        }
+        function.compiled = bodies.get(function.body);
+    }
+
+    // Bodies compiled so far
+    public int compiled() {
+        return compiled;
+    }
+
+    private Compiled compile(FunctionValue function) {
+        byte[] bytes = JitCompiler.compile(function);
+        if (bytes == null) return NOT_COMPILABLE;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            Compiled code = (Compiled) lookup.findConstructor(lookup.lookupClass(),
+                MethodType.methodType(void.class)).invoke();
+            compiled++;
+            return code;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Bad compiled code for a function body", e);
+        }
+    }
+
+    // A parameter's value for compiled code, forcing it if it is a promise
+    public static double number(Environment frame, int slot) {
+        Object value = frame.getAt(0, slot, null);
+        if (value instanceof Double d) return d;
+        throw DEOPTIMIZATION;
+    }
+}
@@ -0,0 +1,658 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+// Translates a function body into the class file of a Jit.Compiled, or returns null when the
+// body does anything but arithmetic, comparisons, assignments and control flow on its own
+// variables. Each variable becomes a JVM double local, each runtime frame of the body a set
+// of them; the resolved (depth, slot) addresses say which one an identifier means.
+//
+// A local may only be read where it is bound on every path, since the tree walker would
+// otherwise go on to look the name up outside the function. Parameters are always bound but
+// may hold promises, so each is loaded from the frame on its first read, behind a flag where
+// the first read is not known statically. The class file is version 49, which the JVM
+// verifies by inference, so no stack maps are needed.
+final class JitCompiler {
+
+    // Abandons the compilation; the body stays interpreted
+    private static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, ICONST_1 = 0x04, LCONST_0 = 0x09,
+        LCONST_1 = 0x0a, DCONST_0 = 0x0e, DCONST_1 = 0x0f, SIPUSH = 0x11, LDC2_W = 0x14, ILOAD = 0x15,
+        LLOAD = 0x16, DLOAD = 0x18, ALOAD = 0x19, ISTORE = 0x36, LSTORE = 0x37, DSTORE = 0x39,
+        POP2 = 0x58, DUP = 0x59, DUP2 = 0x5c, LADD = 0x61, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b,
+        DDIV = 0x6f, L2D = 0x8a, LCMP = 0x94, DCMPL = 0x97, DCMPG = 0x98, IFEQ = 0x99, IFNE = 0x9a,
+        IFGE = 0x9c, IFLE = 0x9e, GOTO = 0xa7, ARETURN = 0xb0, RETURN = 0xb1, GETFIELD = 0xb4,
+        INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+    private static final int FRAME = 1; // JVM local holding the Environment; 0 is 'this'
+    private static final int MAX_LOCALS = 250; // Loads and stores use one-byte indexes
+
+    private static final class Label {
+        int position = -1;
+        final List<Integer> jumps = new ArrayList<>(); // Branches waiting for the position
+    }
+
+    private record Loop(Label next, Label exit, int stack) {}
+
+    // Constant pool
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    // Code of the call method
+    private byte[] code = new byte[256];
+    private int length;
+    private int stack;
+    private int maxStack;
+
+    // Variables: the JVM local of each, and for parameters their frame slot and loaded flag
+    private final List<int[]> frames = new ArrayList<>(); // Variable numbers per slot, innermost last
+    private final List<Integer> locals = new ArrayList<>();
+    private final Map<Integer, Integer> parameterSlots = new HashMap<>();
+    private final Map<Integer, Integer> loadedFlags = new HashMap<>();
+    private final StringBuilder localKinds = new StringBuilder("AA"); // Per JVM local: D, J, I or A
+    private final Deque<Loop> loops = new ArrayDeque<>();
+
+    private JitCompiler() {}
+
+    static byte[] compile(FunctionValue function) {
+        if (function.locals == null) return null;
+        try {
+            return new JitCompiler().function(function);
+        } catch (Unsupported unsupported) {
+            return null;
+        }
+    }
+
+    private byte[] function(FunctionValue function) {
+        int[] parameters = enter(function.locals.length);
+        for (String name : function.parameters) {
+            int slot = Arrays.asList(function.locals).indexOf(name);
+            if (slot < 0) throw UNSUPPORTED;
+            parameterSlots.put(parameters[slot], slot);
+            loadedFlags.put(parameters[slot], local('I'));
+        }
+        result(function.body, new BitSet());
+        returnNull(); // Never reached, but no path may run off the end of the code
+        if (localKinds.length() > MAX_LOCALS) throw UNSUPPORTED;
+        return classFile(initializeLocals());
+    }
+
+    // ---- Expressions -------------------------------------------------------------------
+    // Each returns the variables bound afterwards, or null when control does not get there.
+
+    // Pushes the value, which is always a double
+    private BitSet value(Parser.Expression expr, BitSet bound) {
+        if (expr instanceof Parser.NumberLiteral num) {
+            if (num.constant == null) throw UNSUPPORTED;
+            constant(num.constant);
+            return bound;
+        }
+        if (expr instanceof Parser.Identifier id) {
+            return load(id, bound);
+        }
+        if (expr instanceof Parser.BinaryExpression bin) {
+            int opcode = switch (bin.operator) {
+                case PLUS -> DADD;
+                case MINUS -> DSUB;
+                case MULTIPLY -> DMUL;
+                case DIVIDE -> DDIV;
+                default -> throw UNSUPPORTED;
+            };
+            bound = value(bin.left, bound);
+            if (bound == null) throw UNSUPPORTED;
+            bound = value(bin.right, bound);
+            if (bound == null) throw UNSUPPORTED;
+            op(opcode, -2);
+            return bound;
+        }
+        if (expr instanceof Parser.Assignment assign) {
+            bound = value(assign.value, bound);
+            if (bound == null) throw UNSUPPORTED;
+            op(DUP2, 2);
+            return store(assign, bound);
+        }
+        if (expr instanceof Parser.BlockExpression block) {
+            if (block.expressions.isEmpty()) throw UNSUPPORTED; // NULL
+            if (block.framed) enter(block.locals == null ? 0 : block.locals.length);
+            int last = block.expressions.size() - 1;
+            for (int i = 0; i < last && bound != null; i++) {
+                bound = effect(block.expressions.get(i), bound);
+            }
+            if (bound == null) throw UNSUPPORTED;
+            bound = value(block.expressions.get(last), bound);
+            if (block.framed) frames.remove(frames.size() - 1);
+            return bound;
+        }
+        if (expr instanceof Parser.IfExpression ifExpr && ifExpr.elseBranch != null) {
+            Label otherwise = new Label();
+            Label end = new Label();
+            BitSet tested = condition(ifExpr.condition, bound, otherwise);
+            BitSet then = value(ifExpr.thenBranch, copy(tested));
+            jump(GOTO, end);
+            place(otherwise);
+            stack -= 2;
+            BitSet other = value(ifExpr.elseBranch, copy(tested));
+            place(end);
+            return meet(then, other);
+        }
+        if (expr instanceof Parser.FunctionCall call && isNamed(call, "return")) {
+            returnValue(call, bound);
+            op(DCONST_0, 2); // Never reached; keeps the stack the same shape on every path
+            return null;
+        }
+        throw UNSUPPORTED;
+    }
+
+    // Evaluates for effects only, leaving the stack as it was
+    private BitSet effect(Parser.Expression expr, BitSet bound) {
+        if (expr instanceof Parser.Assignment assign) {
+            bound = value(assign.value, bound);
+            if (bound == null) throw UNSUPPORTED;
+            return store(assign, bound);
+        }
+        if (expr instanceof Parser.BlockExpression block) {
+            if (block.framed) enter(block.locals == null ? 0 : block.locals.length);
+            for (Parser.Expression inner : block.expressions) {
+                if (bound == null) break;
+                bound = effect(inner, bound);
+            }
+            if (block.framed) frames.remove(frames.size() - 1);
+            return bound;
+        }
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            Label otherwise = new Label();
+            BitSet tested = condition(ifExpr.condition, bound, otherwise);
+            BitSet then = effect(ifExpr.thenBranch, copy(tested));
+            if (ifExpr.elseBranch == null) {
+                place(otherwise);
+                return meet(then, tested);
+            }
+            Label end = new Label();
+            jump(GOTO, end);
+            place(otherwise);
+            BitSet other = effect(ifExpr.elseBranch, copy(tested));
+            place(end);
+            return meet(then, other);
+        }
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            Label top = new Label();
+            Label exit = new Label();
+            place(top);
+            BitSet tested = condition(whileExpr.condition, bound, exit);
+            loops.push(new Loop(top, exit, stack));
+            effect(whileExpr.body, copy(tested));
+            loops.pop();
+            jump(GOTO, top);
+            place(exit);
+            return tested;
+        }
+        if (expr instanceof Parser.ForExpression forExpr) {
+            return forLoop(forExpr, bound);
+        }
+        if (expr instanceof Parser.FunctionCall call) {
+            if (isNamed(call, "return")) {
+                returnValue(call, bound);
+                return null;
+            }
+            if ((isNamed(call, "break") || isNamed(call, "next")) && !loops.isEmpty() && loops.peek().stack == stack) {
+                jump(GOTO, isNamed(call, "break") ? loops.peek().exit : loops.peek().next);
+                return null;
+            }
+            throw UNSUPPORTED;
+        }
+        bound = value(expr, bound);
+        op(POP2, -2);
+        return bound;
+    }
+
+    // Evaluates the function's result and returns it
+    private void result(Parser.Expression expr, BitSet bound) {
+        if (expr instanceof Parser.BlockExpression block) {
+            if (block.framed) enter(block.locals == null ? 0 : block.locals.length);
+            int last = block.expressions.size() - 1;
+            for (int i = 0; i < last && bound != null; i++) {
+                bound = effect(block.expressions.get(i), bound);
+            }
+            if (bound != null) {
+                if (last >= 0) result(block.expressions.get(last), bound);
+                else returnNull();
+            }
+            if (block.framed) frames.remove(frames.size() - 1);
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            Label otherwise = new Label();
+            BitSet tested = condition(ifExpr.condition, bound, otherwise);
+            result(ifExpr.thenBranch, copy(tested));
+            place(otherwise);
+            if (ifExpr.elseBranch != null) result(ifExpr.elseBranch, copy(tested));
+            else returnNull();
+        } else if (expr instanceof Parser.WhileExpression || expr instanceof Parser.ForExpression) {
+            if (effect(expr, bound) != null) returnNull();
+        } else if (expr instanceof Parser.FunctionCall call && isNamed(call, "return")) {
+            returnValue(call, bound);
+        } else {
+            value(expr, bound);
+            boxAndReturn();
+        }
+    }
+
+    // Jumps to 'otherwise' when the condition is false
+    private BitSet condition(Parser.Expression expr, BitSet bound, Label otherwise) {
+        if (expr instanceof Parser.BinaryExpression bin && (bin.operator == RLexer3.TokenType.LT
+                || bin.operator == RLexer3.TokenType.GT || bin.operator == RLexer3.TokenType.EQ)) {
+            bound = value(bin.left, bound);
+            if (bound == null) throw UNSUPPORTED;
+            bound = value(bin.right, bound);
+            if (bound == null) throw UNSUPPORTED;
+            switch (bin.operator) {
+                case LT -> { op(DCMPG, -3); jump(IFGE, otherwise); } // NaN compares false
+                case GT -> { op(DCMPL, -3); jump(IFLE, otherwise); }
+                default -> {
+                    // Double.equals, as the tree walker compares
+                    invoke(methodRef("java/lang/Double", "compare", "(DD)I"), -3);
+                    jump(IFNE, otherwise);
+                }
+            }
+            return bound;
+        }
+        bound = value(expr, bound);
+        if (bound == null) throw UNSUPPORTED;
+        op(DCONST_0, 2);
+        op(DCMPL, -3);
+        jump(IFEQ, otherwise); // Any number but 0 is true, NaN included
+        return bound;
+    }
+
+    private BitSet forLoop(Parser.ForExpression forExpr, BitSet bound) {
+        if (forExpr.locals == null) throw UNSUPPORTED;
+        if (forExpr.iterable instanceof Parser.BinaryExpression bin && bin.operator == RLexer3.TokenType.SEQUENCE) {
+            bound = value(bin.left, bound);
+            if (bound == null) throw UNSUPPORTED;
+            bound = value(bin.right, bound);
+            if (bound == null) throw UNSUPPORTED;
+            invoke(methodRef("RangeVector", "of", "(DD)LRangeVector;"), -3);
+        } else {
+            bound = value(forExpr.iterable, bound);
+            if (bound == null) throw UNSUPPORTED;
+            invoke(methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+            invoke(methodRef("Operations", "loopRange", "(Ljava/lang/Object;)LRangeVector;"), 0);
+        }
+        if (bound == null) throw UNSUPPORTED;
+        // Element i is start + i * step, computed as the tree walker does
+        int start = local('D');
+        int step = local('D');
+        int count = local('J');
+        int index = local('J');
+        op(DUP, 1);
+        field("start", "D", 1);
+        op(DSTORE, -2, start);
+        op(DUP, 1);
+        field("step", "D", 1);
+        op(DSTORE, -2, step);
+        field("length", "J", 1);
+        op(LSTORE, -2, count);
+        op(LCONST_0, 2);
+        op(LSTORE, -2, index);
+
+        int variable = enter(forExpr.locals.length)[0]; // The loop variable is declared first
+        Label top = new Label();
+        Label next = new Label();
+        Label exit = new Label();
+        place(top);
+        op(LLOAD, 2, index);
+        op(LLOAD, 2, count);
+        op(LCMP, -3);
+        jump(IFGE, exit);
+        op(DLOAD, 2, start);
+        op(LLOAD, 2, index);
+        op(L2D, 0);
+        op(DLOAD, 2, step);
+        op(DMUL, -2);
+        op(DADD, -2);
+        op(DSTORE, -2, locals.get(variable));
+        BitSet body = copy(bound);
+        body.set(variable);
+        loops.push(new Loop(next, exit, stack));
+        effect(forExpr.body, body);
+        loops.pop();
+        place(next);
+        op(LLOAD, 2, index);
+        op(LCONST_1, 2);
+        op(LADD, -2);
+        op(LSTORE, -2, index);
+        jump(GOTO, top);
+        place(exit);
+        frames.remove(frames.size() - 1);
+        return bound;
+    }
+
+    private void returnValue(Parser.FunctionCall call, BitSet bound) {
+        if (call.arguments.size() > 1) throw UNSUPPORTED;
+        if (call.arguments.isEmpty()) {
+            returnNull();
+        } else {
+            value(call.arguments.get(0), bound);
+            boxAndReturn();
+        }
+    }
+
+    private void boxAndReturn() {
+        invoke(methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+        op(ARETURN, -1);
+    }
+
+    private void returnNull() {
+        op(ACONST_NULL, 1);
+        op(ARETURN, -1);
+    }
+
+    // ---- Variables ---------------------------------------------------------------------
+
+    // Starts a runtime frame of 'size' slots, none of them bound yet
+    private int[] enter(int size) {
+        int[] variables = new int[size];
+        for (int i = 0; i < size; i++) {
+            variables[i] = locals.size();
+            locals.add(local('D'));
+        }
+        frames.add(variables);
+        return variables;
+    }
+
+    private int variable(int depth, int slot) {
+        if (slot < 0 || depth >= frames.size()) throw UNSUPPORTED; // Outside the function
+        int[] frame = frames.get(frames.size() - 1 - depth);
+        if (slot >= frame.length) throw UNSUPPORTED;
+        return frame[slot];
+    }
+
+    private BitSet load(Parser.Identifier id, BitSet bound) {
+        int variable = variable(id.depth, id.slot);
+        int local = locals.get(variable);
+        Integer flag = loadedFlags.get(variable);
+        if (!bound.get(variable)) {
+            if (flag == null) throw UNSUPPORTED;
+            // First read of a parameter on some path: take it from the frame once
+            Label loaded = new Label();
+            op(ILOAD, 1, flag);
+            jump(IFNE, loaded);
+            op(ALOAD, 1, FRAME);
+            op(SIPUSH, 1);
+            u2(parameterSlots.get(variable));
+            invoke(methodRef("Jit", "number", "(LEnvironment;I)D"), 0);
+            op(DSTORE, -2, local);
+            op(ICONST_1, 1);
+            op(ISTORE, -1, flag);
+            place(loaded);
+            bound.set(variable);
+        }
+        op(DLOAD, 2, local);
+        return bound;
+    }
+
+    // Stores the double on top of the stack into the assignment's target
+    private BitSet store(Parser.Assignment assign, BitSet bound) {
+        if (!(assign.target instanceof Parser.Identifier id)) throw UNSUPPORTED;
+        int variable;
+        if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT) {
+            variable = variable(0, id.slot); // Binds in the innermost frame
+        } else {
+            variable = variable(id.depth, id.slot);
+            // Assigning an unbound name goes on to enclosing frames, unless it is a parameter
+            if (!bound.get(variable) && !loadedFlags.containsKey(variable)) throw UNSUPPORTED;
+        }
+        op(DSTORE, -2, locals.get(variable));
+        Integer flag = loadedFlags.get(variable);
+        if (flag != null) {
+            op(ICONST_1, 1);
+            op(ISTORE, -1, flag);
+        }
+        bound.set(variable);
+        return bound;
+    }
+
+    private int local(char kind) {
+        int index = localKinds.length();
+        localKinds.append(kind);
+        if (kind == 'D' || kind == 'J') localKinds.append('-');
+        return index;
+    }
+
+    private static BitSet copy(BitSet bound) {
+        return bound == null ? null : (BitSet) bound.clone();
+    }
+
+    // Bound on both paths; a path that never gets here does not count
+    private static BitSet meet(BitSet a, BitSet b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        a.and(b);
+        return a;
+    }
+
+    private static boolean isNamed(Parser.FunctionCall call, String name) {
+        return call.function instanceof Parser.Identifier id && id.name.equals(name);
+    }
+
+    // ---- Code --------------------------------------------------------------------------
+
+    private void op(int opcode, int delta) {
+        u1(opcode);
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void op(int opcode, int delta, int local) {
+        op(opcode, delta);
+        u1(local);
+    }
+
+    private void constant(double value) {
+        if (Double.doubleToRawLongBits(value) == 0) {
+            op(DCONST_0, 2);
+        } else if (value == 1) {
+            op(DCONST_1, 2);
+        } else {
+            op(LDC2_W, 2);
+            u2(doubleConstant(value));
+        }
+    }
+
+    private void invoke(int method, int delta) {
+        op(INVOKESTATIC, delta);
+        u2(method);
+    }
+
+    private void field(String name, String descriptor, int delta) {
+        op(GETFIELD, delta);
+        u2(fieldRef("RangeVector", name, descriptor));
+    }
+
+    private void jump(int opcode, Label label) {
+        int at = length;
+        op(opcode, opcode == GOTO ? 0 : -1);
+        if (label.position >= 0) {
+            u2(offset(label.position - at));
+        } else {
+            label.jumps.add(at);
+            u2(0);
+        }
+    }
+
+    private void place(Label label) {
+        label.position = length;
+        for (int at : label.jumps) {
+            int offset = offset(length - at);
+            code[at + 1] = (byte) (offset >> 8);
+            code[at + 2] = (byte) offset;
+        }
+    }
+
+    private static int offset(int offset) {
+        if (offset != (short) offset) throw UNSUPPORTED;
+        return offset;
+    }
+
+    private void u1(int value) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    // Every local starts with a value of its kind, so the verifier sees one type for it
+    // on every path; the analysis above keeps unbound ones from being read
+    private byte[] initializeLocals() {
+        byte[] body = Arrays.copyOf(code, length);
+        length = 0;
+        for (int i = 2; i < localKinds.length(); i++) {
+            switch (localKinds.charAt(i)) {
+                case 'D' -> { u1(DCONST_0); u1(DSTORE); u1(i); }
+                case 'J' -> { u1(LCONST_0); u1(LSTORE); u1(i); }
+                case 'I' -> { u1(ICONST_0); u1(ISTORE); u1(i); }
+                default -> {}
+            }
+        }
+        maxStack = Math.max(maxStack, 2);
+        byte[] all = Arrays.copyOf(code, length + body.length);
+        System.arraycopy(body, 0, all, length, body.length);
+        return all;
+    }
+
+    // ---- Class file --------------------------------------------------------------------
+
+    private byte[] classFile(byte[] callCode) {
+        int thisClass = classRef("JitCode");
+        int superClass = classRef("java/lang/Object");
+        int compiled = classRef("Jit$Compiled");
+        int objectInit = methodRef("java/lang/Object", "<init>", "()V", false);
+        int codeName = utf8("Code");
+        int init = utf8("<init>");
+        int initType = utf8("()V");
+        int call = utf8("call");
+        int callType = utf8("(LEnvironment;)Ljava/lang/Object;");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(compiled);
+            out.writeShort(0); // Fields
+            out.writeShort(2); // Methods
+            byte[] initCode = { 0x2a, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN };
+            method(out, init, initType, codeName, 1, 1, initCode);
+            method(out, call, callType, codeName, maxStack, localKinds.length(), callCode);
+            out.writeShort(0); // Attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void method(DataOutputStream out, int name, int type, int codeName, int maxStack, int maxLocals,
+                               byte[] code) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // Exception table
+        out.writeShort(0); // Attributes
+    }
+
+    private int utf8(String text) {
+        return entry("U" + text, out -> {
+            out.writeByte(1);
+            out.writeUTF(text);
+        }, 1);
+    }
+
+    private int classRef(String name) {
+        int utf8 = utf8(name);
+        return entry("C" + name, out -> {
+            out.writeByte(7);
+            out.writeShort(utf8);
+        }, 1);
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        return methodRef(owner, name, descriptor, false);
+    }
+
+    private int methodRef(String owner, String name, String descriptor, boolean onInterface) {
+        return member(onInterface ? 11 : 10, owner, name, descriptor);
+    }
+
+    private int fieldRef(String owner, String name, String descriptor) {
+        return member(9, owner, name, descriptor);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int ownerClass = classRef(owner);
+        int nameUtf8 = utf8(name);
+        int typeUtf8 = utf8(descriptor);
+        int nameAndType = entry("N" + name + " " + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameUtf8);
+            out.writeShort(typeUtf8);
+        }, 1);
+        return entry(tag + owner + "." + name + " " + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerClass);
+            out.writeShort(nameAndType);
+        }, 1);
+    }
+
+    private int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, out -> {
+            out.writeByte(6);
+            out.writeLong(bits);
+        }, 2); // Doubles take two entries
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, Entry entry, int size) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            entry.write(pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index = poolCount;
+        poolCount += size;
+        poolIndex.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.Arrays;
+
+// Maps source offsets to 1-based line and column numbers.
+// Built once per source file and shared by everything that reports positions.
+public class LineIndex {
+    private final int[] lineStarts;
+    private final int length;
+
+    public LineIndex(String source) {
+        int count = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') count++;
+        }
+        lineStarts = new int[count];
+        int line = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') lineStarts[line++] = i + 1;
+        }
+        length = source.length();
+    }
+
+    public int lineCount() {
+        return lineStarts.length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // Offset of the first character of a 1-based line
+    public int lineStart(int line) {
+        return lineStarts[line - 1];
+    }
+
+    public int line(int offset) {
+        int index = Arrays.binarySearch(lineStarts, offset);
+        // A miss returns -(insertionPoint) - 1; the line is the one before the insertion point
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    public int column(int offset) {
+        return offset - lineStarts[line(offset) - 1] + 1;
+    }
+
+    public String describe(long span) {
+        int start = Span.start(span);
+        return "line " + line(start) + ", column " + column(start);
+    }
+}
@@ -0,0 +1,33 @@
+// The result of an element-wise comparison
+public final class LogicalVector implements VectorValue {
+    final boolean[] values;
+
+    public LogicalVector(boolean[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public long length() {
+        return values.length;
+    }
+
+    @Override
+    public double number(long i) {
+        return values[(int) i] ? 1 : 0;
+    }
+
+    @Override
+    public double[] numbers() {
+        double[] numbers = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            numbers[i] = values[i] ? 1 : 0;
+        }
+        return numbers;
+    }
+
+    @Override
+    public String toString() {
+        if (values.length == 0) return "logical(0)";
+        return VectorOps.print(this, i -> values[(int) i] ? "TRUE" : "FALSE");
+    }
+}
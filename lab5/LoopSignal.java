@@ -0,0 +1,14 @@
+// break and next, unwinding to the innermost loop. Both are preallocated and carry no stack
+// trace; the message is only seen when one escapes every loop.
+public final class LoopSignal extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public static final LoopSignal BREAK = new LoopSignal();
+    public static final LoopSignal NEXT = new LoopSignal();
+
+    public static final String NO_LOOP = "no loop for break/next, jumping to top level";
+
+    private LoopSignal() {
+        super(NO_LOOP, null, false, false);
+    }
+}
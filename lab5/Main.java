@@ -6,6 +6,7 @@ import java.util.List;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class Main {
@@ -24,17 +25,19 @@ public class Main {
             }
     
             if (expr instanceof Parser.NumberLiteral num) {
-                println(indent, "Number: " + num.token.value);
+                println(indent, "Number: " + num.value);
             } else if (expr instanceof Parser.StringLiteral str) {
-                println(indent, "String: " + str.token.value);
+                println(indent, "String: " + str.value);
+            } else if (expr instanceof Parser.LogicalLiteral logical) {
+                println(indent, "Logical: " + (logical.value ? "TRUE" : "FALSE"));
             } else if (expr instanceof Parser.Identifier id) {
-                println(indent, "Identifier: " + id.token.value);
+                println(indent, "Identifier: " + id.name);
             } else if (expr instanceof Parser.BinaryExpression bin) {
-                println(indent, "BinaryExpression: " + bin.operator.value);
+                println(indent, "BinaryExpression: " + Parser.operatorSymbol(bin.operator));
                 print(bin.left, indent + 2);
                 print(bin.right, indent + 2);
             } else if (expr instanceof Parser.Assignment assign) {
-                println(indent, "Assignment: " + assign.operator.value);
+                println(indent, "Assignment: " + Parser.operatorSymbol(assign.operator));
                 print(assign.target, indent + 2);
                 print(assign.value, indent + 2);
             } else if (expr instanceof Parser.FunctionCall call) {
@@ -61,7 +64,7 @@ public class Main {
                 print(whileExpr.body, indent + 4);
             } else if (expr instanceof Parser.ForExpression forExpr) {
                 println(indent, "ForExpression:");
-                println(indent + 2, "Variable: " + forExpr.variable.value);
+                println(indent + 2, "Variable: " + forExpr.variable);
                 println(indent + 2, "Iterable:");
                 print(forExpr.iterable, indent + 4);
                 println(indent + 2, "Body:");
@@ -74,8 +77,8 @@ public class Main {
             } else if (expr instanceof Parser.FunctionExpression func) {
                 println(indent, "Function:");
                 println(indent + 2, "Parameters:");
-                for (RLexer3.Token param : func.parameters) {
-                    println(indent + 4, param.value);
+                for (String param : func.parameters) {
+                    println(indent + 4, param);
                 }
                 println(indent + 2, "Body:");
                 print(func.body, indent + 4);
@@ -88,8 +91,45 @@ public class Main {
             System.out.println(" ".repeat(indent) + message);
         }
     }
+    // Semantic checks only, for many files at once: java Main --lint [--cache dir] a.r b.r ...
+    private static void lint(List<String> paths) throws IOException {
+        AnalysisCache cache = null;
+        if (paths.size() >= 2 && paths.get(0).equals("--cache")) {
+            cache = new AnalysisCache(java.nio.file.Path.of(paths.get(1)));
+            paths = paths.subList(2, paths.size());
+        }
+        List<Parser.Expression> files = new ArrayList<>();
+        for (String path : paths) {
+            Parser.Expression ast = new Parser(new RLexer3(RLexer3.readFile(path)).lex()).parse();
+            files.add(ast != null ? ast : new Parser.BlockExpression(new ArrayList<>()));
+        }
+        List<List<String>> results = SemanticAnalyzer.checkFiles(files, ForkJoinPool.commonPool(), cache);
+        for (int i = 0; i < paths.size(); i++) {
+            for (String message : results.get(i)) {
+                System.err.println(paths.get(i) + ": [Semantic Error] " + message);
+            }
+        }
+    }
+
     public static void main(String[] args) {
         try {
+            if (args.length > 0 && args[0].equals("--lint")) {
+                lint(Arrays.asList(args).subList(1, args.length));
+                return;
+            }
+            // java Main --engine vm|nodes|closures runs the bytecode VM, the self-specializing
+            // nodes or the compiled closures instead of the tree walker; --memo N caches up to N results of pure functions;
+            // --profile FILE runs the tree walker profiled, writes collapsed stacks to FILE and reports hot spots.
+            // With -Dlab5.metrics=true the tree walker's counters are published over JMX and reported at the end.
+            String engine = "tree";
+            MemoCache memo = null;
+            String profile = null;
+            RuntimeMetrics metrics = RuntimeMetrics.ENABLED ? RuntimeMetrics.register() : null;
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                if (args[i].equals("--engine")) engine = args[i + 1];
+                else if (args[i].equals("--memo")) memo = new MemoCache(Integer.parseInt(args[i + 1]));
+                else if (args[i].equals("--profile")) profile = args[i + 1];
+            }
             /////////////////////////////////////
             /// LEXER
             String rCode = RLexer3.readFile("./test.r");
@@ -113,10 +153,29 @@ public class Main {
 
             SemanticAnalyzer analyzer = new SemanticAnalyzer();
             analyzer.analyze(ast);
+            ast = new AstOptimizer().optimize(ast);
+            new TypeInferencer().infer(ast);
 
             
-            Interpreter interpreter = new Interpreter();
-            interpreter.interpret(ast);
+            if (engine.equals("vm")) {
+                new VirtualMachine().withMemo(memo).interpret(ast);
+            } else if (engine.equals("nodes")) {
+                new SpecializingInterpreter().withMemo(memo).interpret(ast);
+            } else if (engine.equals("closures")) {
+                new ClosureCompiler().withMemo(memo).interpret(ast);
+            } else if (profile != null) {
+                ProfilingInterpreter profiler = new ProfilingInterpreter(lexer.lineIndex());
+                profiler.withMemo(memo).interpret(ast);
+                try (PrintStream out = new PrintStream(profile)) {
+                    profiler.writeCollapsed(out);
+                }
+                profiler.report(System.err, 10);
+            } else {
+                Interpreter interpreter = new Interpreter().withMemo(memo);
+                interpreter.interpret(ast);
+            }
+            if (memo != null) System.err.println("[Memo] " + memo);
+            if (metrics != null) System.err.println("[Metrics] " + metrics);
             // System.out.println(ast);
         } catch (IOException e) {
             System.err.println("Error during lexical analysis: " + e.getMessage());
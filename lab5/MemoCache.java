@@ -0,0 +1,96 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Results of calls to pure functions, keyed by the function body and the argument values.
+// Holds at most 'capacity' results and evicts the least recently used one past that.
+// Only calls whose arguments are all scalars are cached; comparing vectors element by
+// element could cost as much as the call.
+public final class MemoCache {
+    // Returned by get() when the call is not cached, since NULL is a valid result
+    public static final Object MISS = new Object();
+
+    private static final class Key {
+        final Parser.BlockExpression body;
+        final Object[] arguments;
+        final int hash;
+
+        Key(Parser.BlockExpression body, Object[] arguments) {
+            this.body = body;
+            this.arguments = arguments;
+            this.hash = 31 * System.identityHashCode(body) + Arrays.hashCode(arguments);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.body == body && Arrays.equals(key.arguments, arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final int capacity;
+    private final Map<Key, Object> results;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public MemoCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() <= MemoCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // The key for calling a pure function with these arguments, or null if it is not cached
+    public Object key(FunctionValue function, Object[] arguments) {
+        if (!function.pure) return null;
+        for (Object argument : arguments) {
+            if (!(argument == null || argument instanceof Double || argument instanceof String
+                    || argument instanceof Boolean)) {
+                return null;
+            }
+        }
+        return new Key(function.body, arguments);
+    }
+
+    public Object get(Object key) {
+        Object result = results.getOrDefault(key, MISS);
+        if (result == MISS) misses++;
+        else hits++;
+        return result;
+    }
+
+    public void put(Object key, Object result) {
+        results.put((Key) key, result);
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + " misses=" + misses + " evictions=" + evictions + " size=" + size() + "/" + capacity;
+    }
+}
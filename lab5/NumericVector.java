@@ -0,0 +1,30 @@
+// A numeric vector backed by a primitive array. Vectors are never changed after they are
+// built, so operations may share the array instead of copying it.
+public final class NumericVector implements VectorValue {
+    final double[] values;
+
+    public NumericVector(double[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public long length() {
+        return values.length;
+    }
+
+    @Override
+    public double number(long i) {
+        return values[(int) i];
+    }
+
+    @Override
+    public double[] numbers() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        if (values.length == 0) return "numeric(0)";
+        return VectorOps.print(this, i -> VectorOps.format(values[(int) i]));
+    }
+}
@@ -0,0 +1,48 @@
+// Value semantics shared by every execution engine, so they cannot drift apart.
+public final class Operations {
+
+    // Reported by every engine when recursion runs out of Java stack, in R's words
+    public static final String NESTED_TOO_DEEPLY = "evaluation nested too deeply: infinite recursion / options(expressions=)?";
+
+    private Operations() {}
+
+    public static Object binary(RLexer3.TokenType operator, Object left, Object right) {
+        if (left instanceof VectorValue || right instanceof VectorValue) {
+            return VectorOps.binary(operator, left, right);
+        }
+        return switch (operator) {
+            case PLUS -> (Double) left + (Double) right;
+            case MINUS -> (Double) left - (Double) right;
+            case MULTIPLY -> (Double) left * (Double) right;
+            case DIVIDE -> (Double) left / (Double) right;
+            case LT -> (Double) left < (Double) right;
+            case GT -> (Double) left > (Double) right;
+            case EQ -> left.equals(right);
+            case SEQUENCE -> RangeVector.of((Double) left, (Double) right);
+            default -> throw new RuntimeException("Unsupported binary operator: " + Parser.operatorSymbol(operator));
+        };
+    }
+
+    // The values a for-loop visits: the elements of a sequence, or 1..n for a scalar n
+    public static RangeVector loopRange(Object iterable) {
+        if (iterable instanceof RangeVector range) return range;
+        if (iterable instanceof Double bound) return new RangeVector(1, 1, Math.max(0, bound.intValue()));
+        throw new RuntimeException("Only numeric for-loops are supported.");
+    }
+
+    public static boolean asBoolean(Object value) {
+        if (value instanceof Boolean b) return b;
+        if (value instanceof Double d) return d != 0;
+        if (value instanceof VectorValue vector) {
+            if (vector.length() != 1) {
+                throw new RuntimeException("The condition has length " + vector.length() + ".");
+            }
+            return vector.number(0) != 0;
+        }
+        return value != null;
+    }
+
+    public static void print(Object value) {
+        System.out.println(value);
+    }
+}
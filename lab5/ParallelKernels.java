@@ -0,0 +1,87 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Splits element-wise loops longer than a threshold into halves run on a ForkJoinPool.
+// Every element is computed on its own, so the result does not depend on how the range
+// was split or on the number of threads.
+public final class ParallelKernels implements VectorKernels {
+
+    private interface Range {
+        void run(int from, int to);
+    }
+
+    private final VectorKernels sequential;
+    private final ForkJoinPool pool;
+    private final int threshold; // Ranges up to this length run on the calling thread
+
+    public ParallelKernels(VectorKernels sequential, ForkJoinPool pool, int threshold) {
+        this.sequential = sequential;
+        this.pool = pool;
+        this.threshold = Math.max(1, threshold);
+    }
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double[] left, double[] right, double[] out, int from, int to) {
+        split(from, to, (a, b) -> sequential.arithmetic(operator, left, right, out, a, b));
+    }
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double[] left, double right, double[] out, int from, int to) {
+        split(from, to, (a, b) -> sequential.arithmetic(operator, left, right, out, a, b));
+    }
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double left, double[] right, double[] out, int from, int to) {
+        split(from, to, (a, b) -> sequential.arithmetic(operator, left, right, out, a, b));
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double[] left, double[] right, boolean[] out, int from, int to) {
+        split(from, to, (a, b) -> sequential.compare(operator, left, right, out, a, b));
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double[] left, double right, boolean[] out, int from, int to) {
+        split(from, to, (a, b) -> sequential.compare(operator, left, right, out, a, b));
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double left, double[] right, boolean[] out, int from, int to) {
+        split(from, to, (a, b) -> sequential.compare(operator, left, right, out, a, b));
+    }
+
+    private void split(int from, int to, Range body) {
+        if (to - from <= threshold) {
+            body.run(from, to);
+            return;
+        }
+        Split task = new Split(from, to, body);
+        if (ForkJoinTask.inForkJoinPool()) task.invoke();
+        else pool.invoke(task);
+    }
+
+    private final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final Range body;
+
+        Split(int from, int to, Range body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                body.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Split(from, middle, body), new Split(middle, to, body));
+        }
+    }
+}
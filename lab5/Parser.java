@@ -9,71 +9,160 @@ import java.util.*;
 
 
 public class Parser {
-    public abstract class AstNode {}
-    public abstract class Expression extends AstNode {}
-    public class NumberLiteral extends Expression {
-        public final RLexer3.Token token;
-        public NumberLiteral(RLexer3.Token token) {
-            this.token = token;
+    public abstract static sealed class AstNode permits Expression {}
+    public abstract static sealed class Expression extends AstNode
+            permits NumberLiteral, StringLiteral, LogicalLiteral, Identifier, BinaryExpression, Assignment, FunctionExpression,
+                    FunctionCall, IfExpression, WhileExpression, ForExpression, BlockExpression {
+        public long span; // Packed source offsets, see Span
+        public Type type = Type.UNKNOWN; // Filled in by TypeInferencer
+
+        // Double dispatch: one virtual call reaches the walker's method for this node type
+        public abstract <R> R accept(Visitor<R> visitor);
+    }
+
+    // One method per node type; the sealed hierarchy guarantees nothing else reaches a walker
+    public interface Visitor<R> {
+        R visitNumber(NumberLiteral num);
+        R visitString(StringLiteral str);
+        R visitLogical(LogicalLiteral logical);
+        R visitIdentifier(Identifier id);
+        R visitBinary(BinaryExpression bin);
+        R visitAssignment(Assignment assign);
+        R visitFunction(FunctionExpression funcExpr);
+        R visitCall(FunctionCall call);
+        R visitIf(IfExpression ifExpr);
+        R visitWhile(WhileExpression whileExpr);
+        R visitFor(ForExpression forExpr);
+        R visitBlock(BlockExpression block);
+    }
+    public static final class NumberLiteral extends Expression {
+        public final String value;
+        public final Double constant; // Parsed once from value; null if it is not a number
+
+        public NumberLiteral(String value, Double constant) {
+            this.value = value;
+            this.constant = constant;
+        }
+
+        public NumberLiteral(String value) {
+            this(value, ConstantPool.parse(value));
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitNumber(this);
         }
     }
-    public class StringLiteral extends Expression {
-        public final RLexer3.Token token;
+    public static final class StringLiteral extends Expression {
+        public final String value;
     
-        public StringLiteral(RLexer3.Token token) {
-            this.token = token;
+        public StringLiteral(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitString(this);
         }
     }
-    public class Identifier extends Expression {
-        public final RLexer3.Token token;
+    // Never parsed: AstOptimizer puts one where a comparison of literals was
+    public static final class LogicalLiteral extends Expression {
+        public final boolean value;
+
+        public LogicalLiteral(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitLogical(this);
+        }
+    }
+    public static final class Identifier extends Expression {
+        public final String name;
+        // Lexical address filled in by SemanticAnalyzer; slot < 0 means look up by name
+        public int depth = -1;
+        public int slot = -1;
+        public boolean stable; // Set by TypeInferencer when no function rebinds the name with '=' or '->'
     
-        public Identifier(RLexer3.Token token) {
-            this.token = token;
+        public Identifier(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIdentifier(this);
         }
     }
 // Binary Expression
-    public class BinaryExpression extends Expression {
+    public static final class BinaryExpression extends Expression {
         public final Expression left;
-        public final RLexer3.Token operator;
+        public final RLexer3.TokenType operator;
         public final Expression right;
 
-        public BinaryExpression(Expression left, RLexer3.Token operator, Expression right) {
+        public BinaryExpression(Expression left, RLexer3.TokenType operator, Expression right) {
             this.left = left;
             this.operator = operator;
             this.right = right;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBinary(this);
+        }
     }
 // Assignment
-    public class Assignment extends Expression {
+    public static final class Assignment extends Expression {
         public final Expression target;
-        public final RLexer3.Token operator;
+        public final RLexer3.TokenType operator;
         public final Expression value;
 
-        public Assignment(Expression target, RLexer3.Token operator, Expression value) {
+        public Assignment(Expression target, RLexer3.TokenType operator, Expression value) {
             this.target = target;
             this.operator = operator;
             this.value = value;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitAssignment(this);
+        }
     }
-    public class FunctionExpression extends Expression {
-        public final List<RLexer3.Token> parameters;
+    public static final class FunctionExpression extends Expression {
+        public final List<String> parameters;
         public final BlockExpression body;
+        public String[] locals; // Frame layout of the parameter scope, null until resolved
+        public boolean pure; // Set by SemanticAnalyzer when the result depends only on the arguments
     
-        public FunctionExpression(List<RLexer3.Token> parameters, BlockExpression body) {
+        public FunctionExpression(List<String> parameters, BlockExpression body) {
             this.parameters = parameters;
             this.body = body;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitFunction(this);
+        }
     }
-    public class FunctionCall extends Expression {
+    public static final class FunctionCall extends Expression {
         public final Expression function;
         public final List<Expression> arguments;
+        public InlineCache cache; // Kept by the tree-walking Interpreter, created on the first call
+        public boolean tail; // Set by AstOptimizer when its value is the enclosing function's result
+        public boolean builtin; // Set by SemanticAnalyzer when it runs a Builtins function no binding shadows
+        public Expression[] deferred; // Arguments the Interpreter passes lazily, from the first call
     
         public FunctionCall(Expression function, List<Expression> arguments) {
             this.function = function;
             this.arguments = arguments;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCall(this);
+        }
     }
-    public class IfExpression extends Expression {
+    public static final class IfExpression extends Expression {
         public final Expression condition;
         public final Expression thenBranch;
         public final Expression elseBranch;
@@ -83,8 +172,13 @@ public class Parser {
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIf(this);
+        }
     }
-    public class WhileExpression extends Expression {
+    public static final class WhileExpression extends Expression {
         public final Expression condition;
         public final Expression body;
     
@@ -92,34 +186,78 @@ public class Parser {
             this.condition = condition;
             this.body = body;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitWhile(this);
+        }
     }
-    public class ForExpression extends Expression {
-        public final RLexer3.Token variable;
+    public static final class ForExpression extends Expression {
+        public final String variable;
         public final Expression iterable;
         public final Expression body;
+        public String[] locals; // Frame layout of the loop scope, null until resolved
+        public boolean reusesFrame; // Set by AstOptimizer when no iteration can outlive its frame
     
-        public ForExpression(RLexer3.Token variable, Expression iterable, Expression body) {
+        public ForExpression(String variable, Expression iterable, Expression body) {
             this.variable = variable;
             this.iterable = iterable;
             this.body = body;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitFor(this);
+        }
     }
 
-    public class BlockExpression extends Expression {
+    public static final class BlockExpression extends Expression {
         public final List<Expression> expressions;
+        public String[] locals; // Frame layout of the block scope, null until resolved
+        public boolean framed = true; // False once AstOptimizer has moved its slots elsewhere
     
         public BlockExpression(List<Expression> expressions) {
             this.expressions = expressions;
         }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBlock(this);
+        }
+    }
+
+    public static String operatorSymbol(RLexer3.TokenType type) {
+        return switch (type) {
+            case ASSIGN_LEFT -> "<-";
+            case ASSIGN_RIGHT -> "->";
+            case ASSIGN_EQUAL -> "=";
+            case PLUS -> "+";
+            case MINUS -> "-";
+            case MULTIPLY -> "*";
+            case DIVIDE -> "/";
+            case LT -> "<";
+            case GT -> ">";
+            case LE -> "<=";
+            case GE -> ">=";
+            case EQ -> "==";
+            case NE -> "!=";
+            case SEQUENCE -> ":";
+            default -> type.name();
+        };
     }
 
     private final List<RLexer3.Token> tokens;
+    private final ConstantPool constants = new ConstantPool();
     private int current = 0;
 
     public Parser(List<RLexer3.Token> tokens) {
         this.tokens = tokens;
     }
 
+    public ConstantPool constants() {
+        return constants;
+    }
+
     public Expression parse() {
         try {
             List<Expression> expressions = new ArrayList<>();
@@ -135,7 +273,9 @@ public class Parser {
                 }
                 match(RLexer3.TokenType.SEMICOLON);
             }
-            return new BlockExpression(expressions);
+            BlockExpression root = new BlockExpression(expressions);
+            root.span = Span.of(0, current == 0 ? 0 : previous().endOffset); // Nothing consumed for empty input
+            return root;
         } catch (ParseError e) {
         
             System.err.println(e.getMessage());
@@ -147,6 +287,7 @@ public class Parser {
     private Expression expression() {
         if (match(RLexer3.TokenType.IF)) return ifExpression();
         if (match(RLexer3.TokenType.WHILE)) return whileExpression();
+        if (match(RLexer3.TokenType.REPEAT)) return repeatExpression();
         if (match(RLexer3.TokenType.FOR)) return forExpression();
         if (match(RLexer3.TokenType.LEFT_BRACE)) return blockExpression();
 
@@ -154,12 +295,12 @@ public class Parser {
     }
 
     private Expression assignment() {
-        Expression expr = sequence();
+        Expression expr = comparison();
 
         if (match(RLexer3.TokenType.ASSIGN_LEFT, RLexer3.TokenType.ASSIGN_EQUAL, RLexer3.TokenType.ASSIGN_RIGHT)) {
             RLexer3.Token operator = previous();
             Expression value = expression();
-            return new Assignment(expr, operator, value);
+            return spanning(new Assignment(expr, operator.type, value), expr, value);
         }
 
         return expr;
@@ -171,19 +312,19 @@ public class Parser {
         while (match(RLexer3.TokenType.PLUS, RLexer3.TokenType.MINUS)) {
             RLexer3.Token operator = previous();
             Expression right = multiplicative();
-            expr = new BinaryExpression(expr, operator, right);
+            expr = spanning(new BinaryExpression(expr, operator.type, right), expr, right);
         }
 
         return expr;
     }
 
     private Expression multiplicative() {
-        Expression expr = primary();
+        Expression expr = sequence();
 
         while (match(RLexer3.TokenType.MULTIPLY, RLexer3.TokenType.DIVIDE)) {
             RLexer3.Token operator = previous();
-            Expression right = primary();
-            expr = new BinaryExpression(expr, operator, right);
+            Expression right = sequence();
+            expr = spanning(new BinaryExpression(expr, operator.type, right), expr, right);
         }
 
         return expr;
@@ -195,18 +336,19 @@ public class Parser {
         while (match(RLexer3.TokenType.GT, RLexer3.TokenType.LT, RLexer3.TokenType.GE, RLexer3.TokenType.LE, RLexer3.TokenType.EQ, RLexer3.TokenType.NE)) {
             RLexer3.Token operator = previous();
             Expression right = additive();
-            expr = new BinaryExpression(expr, operator, right);
+            expr = spanning(new BinaryExpression(expr, operator.type, right), expr, right);
         }
         return expr;
     }
 
+    // Binds tighter than arithmetic, as in R: 1:n+1 is (1:n)+1
     private Expression sequence() {
-        Expression expr = comparison();
+        Expression expr = primary();
     
         while (match(RLexer3.TokenType.SEQUENCE)) {
             RLexer3.Token operator = previous();
-            Expression right = comparison();
-            expr = new BinaryExpression(expr, operator, right);
+            Expression right = primary();
+            expr = spanning(new BinaryExpression(expr, operator.type, right), expr, right);
         }
     
         return expr;
@@ -215,14 +357,15 @@ public class Parser {
     
     private Expression primary() {
         if (match(RLexer3.TokenType.FUNCTION)) {
+            RLexer3.Token keyword = previous();
             consume(RLexer3.TokenType.LEFT_PAREN, "Expected '(' after 'function'.");
     
-            List<RLexer3.Token> parameters = new ArrayList<>();
+            List<String> parameters = new ArrayList<>();
     
             if (!check(RLexer3.TokenType.RIGHT_PAREN)) {
                 do {
                     RLexer3.Token param = consume(RLexer3.TokenType.IDENTIFIER, "Expected parameter name.");
-                    parameters.add(param);
+                    parameters.add(param.value);
                 } while (match(RLexer3.TokenType.COMMA));
             }
     
@@ -235,14 +378,20 @@ public class Parser {
                 throw error("Expected block '{...}' as function body.");
             }
     
-            return new FunctionExpression(parameters, (BlockExpression) bodyExpr);
+            return spanned(new FunctionExpression(parameters, (BlockExpression) bodyExpr), keyword);
+        }
+        // As in R, break and next are calls to primitives, like return()
+        if (match(RLexer3.TokenType.BREAK, RLexer3.TokenType.NEXT)) {
+            RLexer3.Token keyword = previous();
+            Identifier callee = spanned(new Identifier(keyword.value), keyword, keyword);
+            return spanned(new FunctionCall(callee, new ArrayList<>()), keyword);
         }
         if (match(RLexer3.TokenType.NUMERIC_LITERAL)) {
-            return new NumberLiteral(previous());
+            return spanned(new NumberLiteral(previous().value, constants.number(previous().value)), previous());
         }
 
         if (match(RLexer3.TokenType.STRING_LITERAL)) {
-            return new StringLiteral(previous());
+            return spanned(new StringLiteral(constants.string(previous().value)), previous());
         }
 
         if (match(RLexer3.TokenType.IDENTIFIER)) {
@@ -256,10 +405,11 @@ public class Parser {
                     } while (match(RLexer3.TokenType.COMMA));
                 }
                 consume(RLexer3.TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
-                return new FunctionCall(new Identifier(name), args);
+                Identifier callee = spanned(new Identifier(name.value), name, name);
+                return spanned(new FunctionCall(callee, args), name);
             }
 
-            return new Identifier(name);
+            return spanned(new Identifier(name.value), name);
         }
 
         if (match(RLexer3.TokenType.LEFT_PAREN)) {
@@ -281,6 +431,7 @@ public class Parser {
         }
     }
     private Expression ifExpression() {
+        RLexer3.Token keyword = previous();
         consume(RLexer3.TokenType.LEFT_PAREN, "Expect '(' after 'if'.");
         Expression condition = expression();
         consume(RLexer3.TokenType.RIGHT_PAREN, "Expect ')' after condition.");
@@ -292,32 +443,57 @@ public class Parser {
             elseBranch = expression();
         }
 
-        return new IfExpression(condition, thenBranch, elseBranch);
+        return spanned(new IfExpression(condition, thenBranch, elseBranch), keyword);
     }
     private Expression whileExpression() {
+        RLexer3.Token keyword = previous();
         consume(RLexer3.TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
         Expression condition = expression();
         consume(RLexer3.TokenType.RIGHT_PAREN, "Expect ')' after condition.");
         Expression body = expression();
-        return new WhileExpression(condition, body);
+        return spanned(new WhileExpression(condition, body), keyword);
+    }
+    // repeat body is while (1) body; only break leaves it
+    private Expression repeatExpression() {
+        RLexer3.Token keyword = previous();
+        Expression condition = spanned(new NumberLiteral("1", constants.number("1")), keyword, keyword);
+        Expression body = expression();
+        return spanned(new WhileExpression(condition, body), keyword);
     }
     private Expression forExpression() {
+        RLexer3.Token keyword = previous();
         consume(RLexer3.TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
         RLexer3.Token variable = consume(RLexer3.TokenType.IDENTIFIER, "Expect loop variable.");
         consume(RLexer3.TokenType.IN, "Expect 'in' after variable.");
         Expression iterable = expression();
         consume(RLexer3.TokenType.RIGHT_PAREN, "Expect ')' after iterable.");
         Expression body = expression();
-        return new ForExpression(variable, iterable, body);
+        return spanned(new ForExpression(variable.value, iterable, body), keyword);
     }
     private Expression blockExpression() {
+        RLexer3.Token brace = previous();
         List<Expression> expressions = new ArrayList<>();
         while (!check(RLexer3.TokenType.RIGHT_BRACE) && !isAtEnd()) {
             expressions.add(expression());
             match(RLexer3.TokenType.SEMICOLON); // optional
         }
         consume(RLexer3.TokenType.RIGHT_BRACE, "Expect '}' after block.");
-        return new BlockExpression(expressions);
+        return spanned(new BlockExpression(expressions), brace);
+    }
+
+    // Span from the given token through the last consumed token
+    private <T extends Expression> T spanned(T node, RLexer3.Token first) {
+        return spanned(node, first, previous());
+    }
+
+    private <T extends Expression> T spanned(T node, RLexer3.Token first, RLexer3.Token last) {
+        node.span = Span.of(first.startOffset, last.endOffset);
+        return node;
+    }
+
+    private <T extends Expression> T spanning(T node, Expression first, Expression last) {
+        node.span = Span.cover(first.span, last.span);
+        return node;
     }
 
     // Utility functions
@@ -371,6 +547,7 @@ public class Parser {
             switch (peek().type) {
                 case IF:
                 case WHILE:
+                case REPEAT:
                 case FOR:
                 case FUNCTION:
                 case LEFT_BRACE:
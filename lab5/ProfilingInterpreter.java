@@ -0,0 +1,284 @@
+import java.io.PrintStream;
+import java.util.*;
+
+// The tree walker with a stopwatch around every node it visits and every function body it
+// runs. Profiling is chosen by instantiating this class instead of Interpreter, so scripts
+// run without it pay nothing for it.
+//
+// Each node and each function body gets a count, a total time and a self time: the total
+// minus the time spent in the nodes (or function calls) it ran. Totals of recursive nodes
+// and functions are only taken at the outermost activation, so they are not counted twice.
+// Self times per function call stack are kept too, for export in collapsed-stack format.
+//
+// Nodes the tree walker evaluates on its unboxed numeric paths are not visited, so their
+// time is part of the node above them. The Jit is off, since compiled bodies would be one
+// opaque step.
+public class ProfilingInterpreter extends Interpreter {
+
+    public static final class Stats {
+        public long count;
+        public long totalNanos;
+        public long selfNanos;
+        private int active; // Activations under way, so recursion does not count time twice
+    }
+
+    private final LineIndex lines;
+    private final Map<Parser.Expression, Stats> nodes = new IdentityHashMap<>();
+    private final Map<Parser.BlockExpression, Stats> functions = new IdentityHashMap<>();
+    private final Map<Parser.BlockExpression, String> names = new IdentityHashMap<>();
+    private final Map<String, Long> stacks = new HashMap<>(); // "main;f;g" to self nanoseconds
+
+    // Running node activations: start time and the time taken by nodes below each
+    private long[] nodeStarts = new long[64];
+    private long[] nodeChildren = new long[64];
+    private int nodeDepth;
+
+    // Running function activations, with the call stack each one extends
+    private final ArrayList<String> paths = new ArrayList<>();
+    private long[] callChildren = new long[64]; // Time taken by the function calls below each
+    private int callDepth;
+
+    public ProfilingInterpreter(LineIndex lines) {
+        this.lines = lines;
+        withJit(null);
+    }
+
+    @Override
+    public void interpret(Parser.Expression root) {
+        paths.add("main");
+        callDepth = 1;
+        long start = System.nanoTime();
+        super.interpret(root);
+        long elapsed = System.nanoTime() - start;
+        stacks.merge("main", elapsed - callChildren[0], Long::sum);
+    }
+
+    @Override
+    protected Object body(FunctionValue function, Environment frame) {
+        Stats stats = functions.computeIfAbsent(function.body, body -> new Stats());
+        String path = paths.get(callDepth - 1) + ";" + name(function.body);
+        if (callDepth == callChildren.length) callChildren = Arrays.copyOf(callChildren, callDepth * 2);
+        if (paths.size() == callDepth) paths.add(path);
+        else paths.set(callDepth, path);
+        int depth = callDepth++;
+        callChildren[depth] = 0;
+        stats.count++;
+        stats.active++;
+        long start = System.nanoTime();
+        try {
+            return super.body(function, frame);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            long self = elapsed - callChildren[depth];
+            callDepth = depth;
+            callChildren[depth - 1] += elapsed;
+            stats.selfNanos += self;
+            if (--stats.active == 0) stats.totalNanos += elapsed;
+            stacks.merge(path, self, Long::sum);
+        }
+    }
+
+    private Stats enter(Parser.Expression expr) {
+        Stats stats = nodes.computeIfAbsent(expr, node -> new Stats());
+        if (nodeDepth == nodeStarts.length) {
+            nodeStarts = Arrays.copyOf(nodeStarts, nodeDepth * 2);
+            nodeChildren = Arrays.copyOf(nodeChildren, nodeDepth * 2);
+        }
+        stats.count++;
+        stats.active++;
+        nodeChildren[nodeDepth] = 0;
+        nodeStarts[nodeDepth++] = System.nanoTime();
+        return stats;
+    }
+
+    private void exit(Stats stats) {
+        int depth = --nodeDepth;
+        long elapsed = System.nanoTime() - nodeStarts[depth];
+        if (depth > 0) nodeChildren[depth - 1] += elapsed;
+        stats.selfNanos += elapsed - nodeChildren[depth];
+        if (--stats.active == 0) stats.totalNanos += elapsed;
+    }
+
+    @Override
+    public Object visitNumber(Parser.NumberLiteral num) {
+        Stats stats = enter(num);
+        try {
+            return super.visitNumber(num);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitString(Parser.StringLiteral str) {
+        Stats stats = enter(str);
+        try {
+            return super.visitString(str);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitLogical(Parser.LogicalLiteral logical) {
+        Stats stats = enter(logical);
+        try {
+            return super.visitLogical(logical);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitIdentifier(Parser.Identifier id) {
+        Stats stats = enter(id);
+        try {
+            return super.visitIdentifier(id);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitAssignment(Parser.Assignment assign) {
+        // Functions are named after the variable they are first assigned to
+        if (assign.value instanceof Parser.FunctionExpression function && assign.target instanceof Parser.Identifier id) {
+            names.putIfAbsent(function.body, id.name);
+        }
+        Stats stats = enter(assign);
+        try {
+            return super.visitAssignment(assign);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitBinary(Parser.BinaryExpression bin) {
+        Stats stats = enter(bin);
+        try {
+            return super.visitBinary(bin);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitBlock(Parser.BlockExpression block) {
+        Stats stats = enter(block);
+        try {
+            return super.visitBlock(block);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitIf(Parser.IfExpression ifExpr) {
+        Stats stats = enter(ifExpr);
+        try {
+            return super.visitIf(ifExpr);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitWhile(Parser.WhileExpression whileExpr) {
+        Stats stats = enter(whileExpr);
+        try {
+            return super.visitWhile(whileExpr);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitFor(Parser.ForExpression forExpr) {
+        Stats stats = enter(forExpr);
+        try {
+            return super.visitFor(forExpr);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitFunction(Parser.FunctionExpression funcExpr) {
+        Stats stats = enter(funcExpr);
+        try {
+            return super.visitFunction(funcExpr);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    @Override
+    public Object visitCall(Parser.FunctionCall call) {
+        Stats stats = enter(call);
+        try {
+            return super.visitCall(call);
+        } finally {
+            exit(stats);
+        }
+    }
+
+    public Map<Parser.Expression, Stats> nodes() {
+        return nodes;
+    }
+
+    public Map<Parser.BlockExpression, Stats> functions() {
+        return functions;
+    }
+
+    // One line per call stack, "main;f;g 1234" with the self time in nanoseconds, as
+    // flamegraph.pl and speedscope read it
+    public void writeCollapsed(PrintStream out) {
+        List<String> keys = new ArrayList<>(stacks.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            out.println(key + " " + stacks.get(key));
+        }
+    }
+
+    // The functions and the source lines with the most self time, n of each
+    public void report(PrintStream out, int n) {
+        List<Map.Entry<Parser.BlockExpression, Stats>> hotFunctions = new ArrayList<>(functions.entrySet());
+        hotFunctions.sort((a, b) -> Long.compare(b.getValue().selfNanos, a.getValue().selfNanos));
+        out.println("[Profile] functions by self time");
+        out.printf("%12s %12s %10s  %s%n", "self ms", "total ms", "calls", "function");
+        for (Map.Entry<Parser.BlockExpression, Stats> entry : hotFunctions.subList(0, Math.min(n, hotFunctions.size()))) {
+            Stats stats = entry.getValue();
+            out.printf("%12.3f %12.3f %10d  %s%n", stats.selfNanos / 1e6, stats.totalNanos / 1e6, stats.count,
+                name(entry.getKey()));
+        }
+
+        // Nodes on one line add up; the line's total is that of its outermost node
+        Map<Integer, Stats> byLine = new TreeMap<>();
+        for (Map.Entry<Parser.Expression, Stats> entry : nodes.entrySet()) {
+            Stats node = entry.getValue();
+            Stats line = byLine.computeIfAbsent(line(entry.getKey()), key -> new Stats());
+            line.count += node.count;
+            line.selfNanos += node.selfNanos;
+            line.totalNanos = Math.max(line.totalNanos, node.totalNanos);
+        }
+        List<Map.Entry<Integer, Stats>> hotLines = new ArrayList<>(byLine.entrySet());
+        hotLines.sort((a, b) -> Long.compare(b.getValue().selfNanos, a.getValue().selfNanos));
+        out.println("[Profile] lines by self time");
+        out.printf("%12s %12s %10s  %s%n", "self ms", "total ms", "nodes run", "line");
+        for (Map.Entry<Integer, Stats> entry : hotLines.subList(0, Math.min(n, hotLines.size()))) {
+            Stats stats = entry.getValue();
+            out.printf("%12.3f %12.3f %10d  %d%n", stats.selfNanos / 1e6, stats.totalNanos / 1e6, stats.count,
+                entry.getKey());
+        }
+    }
+
+    private String name(Parser.BlockExpression body) {
+        String name = names.get(body);
+        return name != null ? name : "function@" + line(body);
+    }
+
+    private int line(Parser.Expression expr) {
+        return lines.line(Span.start(expr.span));
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.List;
+
+// An argument passed unevaluated: its code and the caller's frame. Environment forces it the
+// first time the parameter is read and keeps the value in its place, so later reads and
+// other frames holding the same promise do not evaluate it again. The caller's frame counts
+// as captured only until then.
+public final class Promise {
+    public interface Evaluator {
+        Object evaluate(Object code, Environment env);
+    }
+
+    private static final String RECURSIVE = "promise already under evaluation: recursive default argument reference or earlier problems?";
+
+    private Evaluator evaluator; // null once forced
+    private Object code; // Whatever the engine evaluates: an expression, a node or a chunk
+    private Environment env;
+    private Object value;
+    private boolean forcing;
+
+    public Promise(Evaluator evaluator, Object code, Environment env) {
+        this.evaluator = evaluator;
+        this.code = code;
+        this.env = env;
+        env.capture();
+    }
+
+    public Object force() {
+        if (evaluator == null) return value;
+        if (forcing) throw new RuntimeException(RECURSIVE);
+        forcing = true;
+        try {
+            value = evaluator.evaluate(code, env);
+        } finally {
+            forcing = false;
+        }
+        evaluator = null;
+        code = null;
+        env.release();
+        env = null;
+        return value;
+    }
+
+    // What a call passes for a deferred argument. A variable that cannot be rebound before the
+    // callee reads it is passed as whatever binds it now, a promise included, so nothing is
+    // allocated and no frame is captured: a slot-resolved one that no function rebinds with
+    // '=' or '->', or any variable when the callee is pure and so rebinds nothing outside itself.
+    public static Object pass(Parser.Expression argument, FunctionValue callee, Evaluator evaluator, Object code,
+                              Environment env) {
+        if (argument instanceof Parser.Identifier id && (id.stable && id.slot >= 0 || callee.pure)) {
+            Object held = env.held(id.depth, id.slot, id.name);
+            if (held != null) return held;
+        }
+        return new Promise(evaluator, code, env);
+    }
+
+    // The arguments of a call that are deferred, null where one is evaluated at the call.
+    // Literals and function expressions are: their value is the same whenever it is taken.
+    // So is an argument that calls return(), break or next, since those act on the caller's
+    // function and loops. Variables are left to pass(), which knows the callee.
+    public static Parser.Expression[] deferred(List<Parser.Expression> arguments) {
+        Parser.Expression[] deferred = new Parser.Expression[arguments.size()];
+        for (int i = 0; i < deferred.length; i++) {
+            Parser.Expression arg = arguments.get(i);
+            boolean constant = arg instanceof Parser.NumberLiteral || arg instanceof Parser.StringLiteral
+                    || arg instanceof Parser.LogicalLiteral || arg instanceof Parser.FunctionExpression;
+            if (!constant && !controls(arg)) deferred[i] = arg;
+        }
+        return deferred;
+    }
+
+    private static boolean controls(Parser.Expression expr) {
+        if (expr instanceof Parser.FunctionCall call) {
+            if (call.function instanceof Parser.Identifier id
+                    && (id.name.equals("return") || id.name.equals("break") || id.name.equals("next"))) {
+                return true;
+            }
+            for (Parser.Expression arg : call.arguments) {
+                if (controls(arg)) return true;
+            }
+            return false;
+        }
+        if (expr instanceof Parser.Assignment assign) return controls(assign.value);
+        if (expr instanceof Parser.BinaryExpression bin) return controls(bin.left) || controls(bin.right);
+        if (expr instanceof Parser.BlockExpression block) {
+            for (Parser.Expression inner : block.expressions) {
+                if (controls(inner)) return true;
+            }
+            return false;
+        }
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            return controls(ifExpr.condition) || controls(ifExpr.thenBranch)
+                || (ifExpr.elseBranch != null && controls(ifExpr.elseBranch));
+        }
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            return controls(whileExpr.condition) || controls(whileExpr.body);
+        }
+        if (expr instanceof Parser.ForExpression forExpr) {
+            return controls(forExpr.iterable) || controls(forExpr.body);
+        }
+        return false; // Literals, identifiers, and function bodies, which have their own return()
+    }
+}
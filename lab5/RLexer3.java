@@ -46,6 +46,8 @@ public class RLexer3 {
         public String value;
         public int lineNumber;
         public int columnNumber;
+        public int startOffset; // Source offset of the first character
+        public int endOffset; // Source offset just past the last character
         public int id; // Unique ID for each token
         private static int nextId = 1; // Static counter for generating IDs
 
@@ -68,21 +70,31 @@ public class RLexer3 {
     private String[] lines; // Array of input lines
     private int lineNumber = 0; // Current line number (0-based index for array access)
     private int columnNumber = 1; // Current column number (1-based)
+    private final LineIndex lineIndex;
+    private int lineOffset = 0; // Source offset of the current line
 
     public RLexer3(String input) {
         // Split input into lines, preserving line breaks
         this.lines = input.split("\n", -1); // -1 to keep trailing empty lines
+        this.lineIndex = new LineIndex(input);
+    }
+
+    public LineIndex lineIndex() {
+        return lineIndex;
     }
 
     // Main method to perform lexical analysis
     public List<Token> lex() {
         while (lineNumber < lines.length) {
             String line = lines[lineNumber];
+            lineOffset = lineIndex.lineStart(lineNumber + 1);
             processLine(line);
             lineNumber++;
             columnNumber = 1; // Reset column number for the next line
         }
         addToken(TokenType.EOF, ""); // Add EOF token
+        Token eof = tokens.get(tokens.size() - 1);
+        eof.startOffset = eof.endOffset = lineIndex.length();
         return tokens;
     }
 
@@ -92,13 +104,15 @@ public class RLexer3 {
 
         while (currentPosition < line.length()) {
             char currentChar = line.charAt(currentPosition);
+            int tokenStart = currentPosition;
+            int tokenCount = tokens.size();
 
             if (Character.isWhitespace(currentChar)) {
                 currentPosition++;
                 columnNumber++;
             } else if (currentChar == '#') {
                 processComment(line, currentPosition);
-                break; // Comments extend to the end of the line
+                currentPosition = line.length(); // Comments extend to the end of the line
             } else if (Character.isLetter(currentChar) || currentChar == '.') {
                 currentPosition = processIdentifierOrKeyword(line, currentPosition);
             } else if (Character.isDigit(currentChar)) {
@@ -116,6 +130,13 @@ public class RLexer3 {
             } else {
                 currentPosition = processOperatorOrSymbol(line, currentPosition);
             }
+
+            // Every step emits at most one token, spanning the characters it consumed
+            if (tokens.size() > tokenCount) {
+                Token token = tokens.get(tokens.size() - 1);
+                token.startOffset = lineOffset + tokenStart;
+                token.endOffset = lineOffset + currentPosition;
+            }
         }
     }
 
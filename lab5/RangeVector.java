@@ -0,0 +1,69 @@
+// The result of from:to, stored as its first element, direction and length instead of
+// its elements (like R's compact ALTREP sequences). Length and element access are O(1),
+// so 1:1e9 takes constant memory; an element array exists only once a caller materializes
+// the vector to change it.
+public final class RangeVector implements VectorValue {
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    public final double start;
+    public final double step; // 1 or -1
+    public final long length;
+
+    public RangeVector(double start, double step, long length) {
+        this.start = start;
+        this.step = step;
+        this.length = length;
+    }
+
+    // from:to counts down when to < from and stops at the last element not past 'to'
+    public static RangeVector of(double from, double to) {
+        if (Double.isNaN(from) || Double.isNaN(to) || Double.isInfinite(from) || Double.isInfinite(to)) {
+            throw new RuntimeException("Sequence bounds must be finite numbers.");
+        }
+        double span = Math.abs(to - from) + 1e-10; // Same tolerance R uses for from:to
+        if (span >= Long.MAX_VALUE) {
+            throw new RuntimeException("Sequence " + VectorOps.format(from) + ":" + VectorOps.format(to) + " is too long.");
+        }
+        return new RangeVector(from, to >= from ? 1 : -1, (long) span + 1);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public double number(long i) {
+        return get(i);
+    }
+
+    @Override
+    public double[] numbers() {
+        return materialize();
+    }
+
+    public double get(long i) {
+        if (i < 0 || i >= length) {
+            throw new RuntimeException("Subscript " + (i + 1) + " out of bounds for length " + length + ".");
+        }
+        return start + i * step;
+    }
+
+    // A fresh element array for a caller that is about to change the vector
+    public double[] materialize() {
+        if (length > MAX_ARRAY) {
+            throw new RuntimeException("Cannot materialize a sequence of length " + length + ".");
+        }
+        double[] elements = new double[(int) length];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = start + i * step;
+        }
+        return elements;
+    }
+
+    @Override
+    public String toString() {
+        if (length == 0) return "integer(0)";
+        return VectorOps.print(this, i -> VectorOps.format(start + i * step));
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// sum, mean, min and max over numeric arrays and sequences. The elements are reduced over a fixed tree:
+// blocks of BLOCK elements are reduced in order, and block results are combined pairwise,
+// halving the range at the same points every time. Subtrees longer than the threshold run
+// as parallel tasks, but the tree only depends on the length, so a sum gives the same bits
+// on any number of cores. A sequence is reduced over the same tree as its materialized
+// elements, computing each one where the array would be read.
+public final class Reductions {
+
+    public enum Kind { SUM, MIN, MAX }
+
+    private static final int BLOCK = 4096;
+
+    private final ForkJoinPool pool;
+    private final int threshold; // Subtrees up to this length are reduced on the calling thread
+
+    public Reductions(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = Math.max(BLOCK, threshold);
+    }
+
+    public double reduce(Kind kind, double[] values) {
+        if (values.length == 0) {
+            return switch (kind) {
+                case SUM -> 0;
+                case MIN -> Double.POSITIVE_INFINITY;
+                case MAX -> Double.NEGATIVE_INFINITY;
+            };
+        }
+        return reduce(kind, values, values.length);
+    }
+
+    public double reduce(Kind kind, RangeVector range) {
+        if (range.length == 0) return reduce(kind, new double[0]);
+        return reduce(kind, range, range.length);
+    }
+
+    // 'source' is a double[] or a RangeVector
+    private double reduce(Kind kind, Object source, long length) {
+        if (length <= threshold) return tree(kind, source, 0, length);
+        Reduce task = new Reduce(kind, source, 0, length);
+        return ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+    }
+
+    private static double tree(Kind kind, Object source, long from, long to) {
+        if (to - from <= BLOCK) {
+            if (source instanceof double[] values) return block(kind, values, (int) from, (int) to);
+            return block(kind, (RangeVector) source, from, to);
+        }
+        long middle = middle(from, to);
+        return combine(kind, tree(kind, source, from, middle), tree(kind, source, middle, to));
+    }
+
+    // Splits on a block boundary, so the leaves are the same blocks at every level
+    private static long middle(long from, long to) {
+        long blocks = (to - from + BLOCK - 1) / BLOCK;
+        return from + blocks / 2 * BLOCK;
+    }
+
+    private static double block(Kind kind, double[] values, int from, int to) {
+        double result = values[from];
+        switch (kind) {
+            case SUM: for (int i = from + 1; i < to; i++) result += values[i]; break;
+            case MIN: for (int i = from + 1; i < to; i++) result = Math.min(result, values[i]); break;
+            case MAX: for (int i = from + 1; i < to; i++) result = Math.max(result, values[i]); break;
+        }
+        return result;
+    }
+
+    // Elements computed as RangeVector.materialize() would store them
+    private static double block(Kind kind, RangeVector range, long from, long to) {
+        double start = range.start;
+        double step = range.step;
+        double result = start + from * step;
+        switch (kind) {
+            case SUM: for (long i = from + 1; i < to; i++) result += start + i * step; break;
+            case MIN: for (long i = from + 1; i < to; i++) result = Math.min(result, start + i * step); break;
+            case MAX: for (long i = from + 1; i < to; i++) result = Math.max(result, start + i * step); break;
+        }
+        return result;
+    }
+
+    private static double combine(Kind kind, double left, double right) {
+        return switch (kind) {
+            case SUM -> left + right;
+            case MIN -> Math.min(left, right);
+            case MAX -> Math.max(left, right);
+        };
+    }
+
+    private final class Reduce extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final Kind kind;
+        private final Object source;
+        private final long from;
+        private final long to;
+
+        Reduce(Kind kind, Object source, long from, long to) {
+            this.kind = kind;
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= threshold) return tree(kind, source, from, to);
+            long middle = middle(from, to);
+            Reduce right = new Reduce(kind, source, middle, to);
+            right.fork();
+            double left = new Reduce(kind, source, from, middle).compute();
+            return combine(kind, left, right.join());
+        }
+    }
+}
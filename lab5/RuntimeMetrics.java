@@ -0,0 +1,125 @@
+import java.lang.management.ManagementFactory;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters behind RuntimeMetricsMXBean. They are only kept when the JVM runs with
+// -Dlab5.metrics=true: ENABLED is a constant, so with it off the JIT drops every
+// "if (RuntimeMetrics.ENABLED)" along with the counting it guards.
+//
+// Lookups happen every few nanoseconds, too often for even an uncontended atomic add, so
+// each thread counts into its own Counters with plain increments. Environments and
+// interpreters pick up their thread's Counters when they are created. Reading sums every
+// thread's counts; a read racing with the counting threads may miss their latest increments.
+public final class RuntimeMetrics implements RuntimeMetricsMXBean {
+    public static final boolean ENABLED = Boolean.getBoolean("lab5.metrics");
+    public static final String NAME = "lab5:type=RuntimeMetrics";
+
+    // One thread's counts, written only by that thread
+    static final class Counters {
+        long environments;
+        long lookups;
+        long framesWalked;
+        long calls;
+        long returns;
+        long boxes;
+        long loopIterations;
+    }
+
+    // Kept after their threads end, so totals do not drop
+    private static final Queue<Counters> ALL = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Counters> LOCAL = ThreadLocal.withInitial(() -> {
+        Counters counters = new Counters();
+        ALL.add(counters);
+        return counters;
+    });
+
+    private static RuntimeMetrics registered;
+
+    private RuntimeMetrics() {}
+
+    // Registers the counters with the platform MBean server once; they are live from then on
+    public static synchronized RuntimeMetrics register() {
+        if (registered == null) {
+            registered = new RuntimeMetrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(registered, new ObjectName(NAME));
+            } catch (JMException e) {
+                throw new IllegalStateException("Cannot register " + NAME, e);
+            }
+        }
+        return registered;
+    }
+
+    // The calling thread's counters
+    static Counters local() {
+        return LOCAL.get();
+    }
+
+    public long getEnvironmentsAllocated() {
+        long sum = 0;
+        for (Counters counters : ALL) sum += counters.environments;
+        return sum;
+    }
+
+    public long getVariableLookups() {
+        long sum = 0;
+        for (Counters counters : ALL) sum += counters.lookups;
+        return sum;
+    }
+
+    public double getAverageLookupDepth() {
+        long lookups = 0;
+        long frames = 0;
+        for (Counters counters : ALL) {
+            lookups += counters.lookups;
+            frames += counters.framesWalked;
+        }
+        return lookups == 0 ? 0 : (double) frames / lookups;
+    }
+
+    public long getFunctionCalls() {
+        long sum = 0;
+        for (Counters counters : ALL) sum += counters.calls;
+        return sum;
+    }
+
+    public long getReturnsThrown() {
+        long sum = 0;
+        for (Counters counters : ALL) sum += counters.returns;
+        return sum;
+    }
+
+    public long getBoxedValues() {
+        long sum = 0;
+        for (Counters counters : ALL) sum += counters.boxes;
+        return sum;
+    }
+
+    public long getLoopIterations() {
+        long sum = 0;
+        for (Counters counters : ALL) sum += counters.loopIterations;
+        return sum;
+    }
+
+    // Only exact while no thread is counting
+    public void reset() {
+        for (Counters counters : ALL) {
+            counters.environments = 0;
+            counters.lookups = 0;
+            counters.framesWalked = 0;
+            counters.calls = 0;
+            counters.returns = 0;
+            counters.boxes = 0;
+            counters.loopIterations = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d environments, %d lookups (%.2f frames deep on average), %d calls, %d returns, "
+                + "%d boxed values, %d loop iterations", getEnvironmentsAllocated(), getVariableLookups(),
+            getAverageLookupDepth(), getFunctionCalls(), getReturnsThrown(), getBoxedValues(), getLoopIterations());
+    }
+}
@@ -0,0 +1,23 @@
+// Live counters from the tree walker and its environments, as JMX shows them. Every value is
+// a total since the process started or since the last reset().
+public interface RuntimeMetricsMXBean {
+    long getEnvironmentsAllocated();
+
+    // Reads and assignments of variables, by name or by lexical address
+    long getVariableLookups();
+
+    // Frames visited per lookup, the one it started in included
+    double getAverageLookupDepth();
+
+    long getFunctionCalls();
+
+    // return() calls, each of which throws a ReturnValue
+    long getReturnsThrown();
+
+    // Doubles boxed from the tree walker's unboxed paths and slots
+    long getBoxedValues();
+
+    long getLoopIterations();
+
+    void reset();
+}
@@ -0,0 +1,70 @@
+// Plain loops, one per operator so each body stays a single operation
+public final class ScalarKernels implements VectorKernels {
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double[] left, double[] right, double[] out, int from, int to) {
+        switch (operator) {
+            case PLUS: for (int i = from; i < to; i++) out[i] = left[i] + right[i]; break;
+            case MINUS: for (int i = from; i < to; i++) out[i] = left[i] - right[i]; break;
+            case MULTIPLY: for (int i = from; i < to; i++) out[i] = left[i] * right[i]; break;
+            case DIVIDE: for (int i = from; i < to; i++) out[i] = left[i] / right[i]; break;
+            default: throw unsupported(operator);
+        }
+    }
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double[] left, double right, double[] out, int from, int to) {
+        switch (operator) {
+            case PLUS: for (int i = from; i < to; i++) out[i] = left[i] + right; break;
+            case MINUS: for (int i = from; i < to; i++) out[i] = left[i] - right; break;
+            case MULTIPLY: for (int i = from; i < to; i++) out[i] = left[i] * right; break;
+            case DIVIDE: for (int i = from; i < to; i++) out[i] = left[i] / right; break;
+            default: throw unsupported(operator);
+        }
+    }
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double left, double[] right, double[] out, int from, int to) {
+        switch (operator) {
+            case PLUS: for (int i = from; i < to; i++) out[i] = left + right[i]; break;
+            case MINUS: for (int i = from; i < to; i++) out[i] = left - right[i]; break;
+            case MULTIPLY: for (int i = from; i < to; i++) out[i] = left * right[i]; break;
+            case DIVIDE: for (int i = from; i < to; i++) out[i] = left / right[i]; break;
+            default: throw unsupported(operator);
+        }
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double[] left, double[] right, boolean[] out, int from, int to) {
+        switch (operator) {
+            case LT: for (int i = from; i < to; i++) out[i] = left[i] < right[i]; break;
+            case GT: for (int i = from; i < to; i++) out[i] = left[i] > right[i]; break;
+            case EQ: for (int i = from; i < to; i++) out[i] = Double.compare(left[i], right[i]) == 0; break;
+            default: throw unsupported(operator);
+        }
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double[] left, double right, boolean[] out, int from, int to) {
+        switch (operator) {
+            case LT: for (int i = from; i < to; i++) out[i] = left[i] < right; break;
+            case GT: for (int i = from; i < to; i++) out[i] = left[i] > right; break;
+            case EQ: for (int i = from; i < to; i++) out[i] = Double.compare(left[i], right) == 0; break;
+            default: throw unsupported(operator);
+        }
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double left, double[] right, boolean[] out, int from, int to) {
+        switch (operator) {
+            case LT: for (int i = from; i < to; i++) out[i] = left < right[i]; break;
+            case GT: for (int i = from; i < to; i++) out[i] = left > right[i]; break;
+            case EQ: for (int i = from; i < to; i++) out[i] = Double.compare(left, right[i]) == 0; break;
+            default: throw unsupported(operator);
+        }
+    }
+
+    static RuntimeException unsupported(RLexer3.TokenType operator) {
+        return new RuntimeException("Unsupported vector operator: " + Parser.operatorSymbol(operator));
+    }
+}
@@ -1,17 +1,49 @@
-
 import java.util.*;
 
 public class Scope {
+    // Scopes with at most this many variables are searched linearly
+    private static final int LINEAR_LIMIT = 8;
+
     private final Scope parent;
-    private final Map<String, Type> variables = new HashMap<>();
-    private final Map<String, FunctionSymbol> functions = new HashMap<>();
+    // Variables in insertion order. The first localCount entries are the runtime slots;
+    // a null type marks a slot that is declared but not defined yet at this point.
+    private String[] names;
+    private Type[] types;
+    private int count;
+    private int localCount;
+    private Map<String, Integer> index; // Built once the scope outgrows LINEAR_LIMIT
+    private Map<String, FunctionSymbol> functions;
+    private boolean frozen; // Frozen scopes are read-only and safe to share between threads
 
     public Scope(Scope parent) {
         this.parent = parent;
     }
 
+    public Scope freeze() {
+        frozen = true;
+        return this;
+    }
+
+    // Frozen copy of this scope chain as it is now; already frozen ancestors are shared
+    public Scope snapshot() {
+        if (frozen) return this;
+        Scope copy = new Scope(parent == null ? null : parent.snapshot());
+        if (names != null) {
+            copy.names = names.clone();
+            copy.types = types.clone();
+        }
+        copy.count = count;
+        copy.localCount = localCount;
+        copy.index = index == null ? null : new HashMap<>(index);
+        copy.functions = functions == null ? null : new HashMap<>(functions);
+        return copy.freeze();
+    }
+
     public void defineVariable(String name, Type type) {
-        variables.put(name, type);
+        checkMutable();
+        int i = find(name);
+        if (i < 0) i = add(name);
+        types[i] = type;
     }
 
     public boolean isVariableDefined(String name) {
@@ -19,22 +51,103 @@ public class Scope {
     }
 
     public Type lookupVariable(String name) {
-        if (variables.containsKey(name)) return variables.get(name);
-        if (parent != null) return parent.lookupVariable(name);
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            int i = scope.find(name);
+            if (i >= 0 && scope.types[i] != null) return scope.types[i];
+        }
         return null;
     }
 
+    // Whether lookupVariable finds 'name' in this scope or the ones around it, short of 'outer'
+    public boolean findsVariableBefore(String name, Scope outer) {
+        for (Scope scope = this; scope != outer && scope != null; scope = scope.parent) {
+            int i = scope.find(name);
+            if (i >= 0 && scope.types[i] != null) return true;
+        }
+        return false;
+    }
+
     public void defineFunction(FunctionSymbol symbol) {
+        checkMutable();
+        if (functions == null) functions = new HashMap<>();
         functions.put(symbol.name, symbol);
     }
 
     public FunctionSymbol lookupFunction(String name) {
-        if (functions.containsKey(name)) return functions.get(name);
-        if (parent != null) return parent.lookupFunction(name);
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.functions != null) {
+                FunctionSymbol symbol = scope.functions.get(name);
+                if (symbol != null) return symbol;
+            }
+        }
         return null;
     }
 
+    // Whether lookupFunction finds 'name' in this scope or the ones around it, short of 'outer'
+    public boolean findsFunctionBefore(String name, Scope outer) {
+        for (Scope scope = this; scope != outer && scope != null; scope = scope.parent) {
+            if (scope.functions != null && scope.functions.containsKey(name)) return true;
+        }
+        return false;
+    }
+
+    public int declareLocal(String name) {
+        checkMutable();
+        int i = find(name);
+        if (i >= 0 && i < localCount) return i;
+        if (i >= 0 || localCount != count) {
+            // Slots are numbered by position, so they must all be declared before other variables
+            throw new IllegalStateException("Local '" + name + "' declared after scope variables");
+        }
+        localCount++;
+        return add(name);
+    }
+
+    public int slotOf(String name) {
+        int i = find(name);
+        return i < localCount ? i : -1;
+    }
+
+    public String[] locals() {
+        return localCount == 0 ? new String[0] : Arrays.copyOf(names, localCount);
+    }
+
     public Scope getParent() {
         return parent;
     }
-}
\ No newline at end of file
+
+    private void checkMutable() {
+        if (frozen) throw new IllegalStateException("Scope is frozen");
+    }
+
+    private int find(String name) {
+        if (index != null) {
+            Integer i = index.get(name);
+            return i != null ? i : -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int add(String name) {
+        if (names == null) {
+            names = new String[4];
+            types = new Type[4];
+        } else if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            types = Arrays.copyOf(types, count * 2);
+        }
+        names[count] = name;
+        if (index != null) {
+            index.put(name, count);
+        } else if (count + 1 > LINEAR_LIMIT) {
+            index = new HashMap<>();
+            for (int i = 0; i <= count; i++) {
+                index.put(names[i], i);
+            }
+        }
+        return count++;
+    }
+}
@@ -1,165 +1,592 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
  // Import your AST classes
 
-public class SemanticAnalyzer {
-    private Scope currentScope = new Scope(null);
+public class SemanticAnalyzer implements Parser.Visitor<Type> {
+    // Builtins are shared by every analyzer, so they are never modified after this
+    private static final Scope BUILTINS = new Scope(null);
+    static {
+        BUILTINS.defineFunction(new FunctionSymbol("return", List.of("value")));
+        BUILTINS.defineFunction(new FunctionSymbol("print", List.of("x")));
+        BUILTINS.defineFunction(new FunctionSymbol("length", List.of("x")));
+        for (String reduction : List.of("sum", "mean", "min", "max")) {
+            BUILTINS.defineFunction(new FunctionSymbol(reduction, List.of("x")));
+        }
+        BUILTINS.freeze();
+    }
+
+    // A top-level function body handed to the pool, analyzed against a frozen copy of the
+    // scopes visible at its definition. Its diagnostics are spliced in at 'position'.
+    private record Deferred(int position, Parser.FunctionExpression function, String cacheKey, SemanticAnalyzer analyzer) {}
+
+    // Builtins whose result depends only on their arguments
+    private static final Set<String> PURE_BUILTINS = Set.of("return", "break", "next", "length", "sum", "mean", "min", "max");
+
+    private Scope currentScope = new Scope(BUILTINS); // Global scope
+    private final ForkJoinPool pool; // null for sequential analysis
+    private final List<String> diagnostics = new ArrayList<>();
+    private final List<Deferred> deferred = new ArrayList<>();
+    private int functionDepth = 0;
+    private int loopDepth = 0; // Loops around this point within the current function
+    private AnalysisCache cache; // Results for top-level function bodies, may be null
+    // While a top-level function is analyzed for the cache: the scope it is defined in, and
+    // the names whose lookup reached that scope. Those are its free variables.
+    private Scope boundary;
+    private Set<String> free;
+
     public SemanticAnalyzer() {
-        // Global scope
-        currentScope.defineFunction(new FunctionSymbol("return", List.of("value")));
-        currentScope.defineFunction(new FunctionSymbol("print", List.of("x")));
-        currentScope.defineFunction(new FunctionSymbol("length", List.of("x")));
+        this(null);
+    }
+
+    // With a pool, every function body that is not nested in another function is
+    // analyzed as its own task. Diagnostics come out in the same order either way.
+    public SemanticAnalyzer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public SemanticAnalyzer withCache(AnalysisCache cache) {
+        this.cache = cache;
+        return this;
     }
 
     public void analyze(Parser.Expression expr) {
+        for (String message : check(expr)) {
+            Errors.report(message);
+        }
+    }
+
+    public List<String> check(Parser.Expression expr) {
         analyzeExpression(expr);
+        List<String> messages = mergeDeferred();
+        markBuiltins(expr);
+        classifyPurity(expr); // Needs every lexical address, including deferred bodies'
+        return messages;
+    }
+
+    // Analyzes independent files as parallel tasks, each with its own global scope.
+    // The result holds every file's diagnostics in input order.
+    public static List<List<String>> checkFiles(List<Parser.Expression> files, ForkJoinPool pool) {
+        return checkFiles(files, pool, null);
+    }
+
+    public static List<List<String>> checkFiles(List<Parser.Expression> files, ForkJoinPool pool, AnalysisCache cache) {
+        List<ForkJoinTask<List<String>>> tasks = new ArrayList<>();
+        for (Parser.Expression file : files) {
+            tasks.add(ForkJoinTask.adapt(() -> new SemanticAnalyzer(pool).withCache(cache).check(file)));
+        }
+        invokeAll(tasks, pool);
+        List<List<String>> results = new ArrayList<>();
+        for (ForkJoinTask<List<String>> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    private List<String> mergeDeferred() {
+        if (deferred.isEmpty()) return diagnostics;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Deferred task : deferred) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                task.analyzer.analyzeFunction(task.function);
+                if (task.cacheKey != null) cache.put(task.cacheKey, task.analyzer.entry(task.function));
+            }));
+        }
+        invokeAll(tasks, pool);
+
+        List<String> merged = new ArrayList<>();
+        int next = 0;
+        for (Deferred task : deferred) {
+            merged.addAll(diagnostics.subList(next, task.position));
+            merged.addAll(task.analyzer.mergeDeferred());
+            next = task.position;
+        }
+        merged.addAll(diagnostics.subList(next, diagnostics.size()));
+        return merged;
+    }
+
+    private static void invokeAll(List<? extends ForkJoinTask<?>> tasks, ForkJoinPool pool) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+    }
+
+    private void report(String message) {
+        diagnostics.add(message);
     }
 
     private Type analyzeExpression(Parser.Expression expr) {
-        if (expr instanceof Parser.BlockExpression block) {
-            enterScope();
-            for (Parser.Expression inner : block.expressions) {
-                analyzeExpression(inner);
-            }
-            exitScope();
+        return expr.accept(this);
+    }
+
+    @Override
+    public Type visitBlock(Parser.BlockExpression block) {
+        enterScope();
+        for (Parser.Expression inner : block.expressions) {
+            declareLocals(inner);
+        }
+        for (Parser.Expression inner : block.expressions) {
+            analyzeExpression(inner);
+        }
+        block.locals = currentScope.locals();
+        exitScope();
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitNumber(Parser.NumberLiteral num) {
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitString(Parser.StringLiteral str) {
+        return Type.STRING;
+    }
+
+    @Override
+    public Type visitLogical(Parser.LogicalLiteral logical) {
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitIdentifier(Parser.Identifier id) {
+        String name = id.name;
+
+        // Handle R constants
+        switch (name) {
+            case "TRUE", "FALSE" -> { return Type.BOOLEAN; }
+            case "NULL", "NA", "NAN", "INF" -> { return Type.UNKNOWN; }
+        }
+
+        resolve(id);
+        Type type = lookupVariable(name);
+        if (type == null) {
+            report("Variable '" + name + "' is not defined.");
             return Type.UNKNOWN;
         }
-        if (expr instanceof Parser.NumberLiteral) {
-            return Type.NUMBER;
+        return type;
+    }
+
+    @Override
+    public Type visitAssignment(Parser.Assignment assign) {
+        if (!(assign.target instanceof Parser.Identifier id)) {
+            report("Left-hand side of assignment must be an identifier.");
+            return Type.UNKNOWN;
         }
 
-        if (expr instanceof Parser.StringLiteral) {
-            return Type.STRING;
+        String varName = id.name;
+        resolve(id);
+
+        if (assign.value instanceof Parser.FunctionExpression funcExpr) {
+            // Define function name first (so it's visible in body)
+            currentScope.defineFunction(new FunctionSymbol(varName,
+                funcExpr.parameters));
+    
+            // Analyze the function body in a new scope
+            analyzeFunction(funcExpr);
+    
+            currentScope.defineVariable(varName, Type.FUNCTION); // optional
+            return Type.FUNCTION;
         }
+        Type valueType = analyzeExpression(assign.value);
+        currentScope.defineVariable(varName, valueType);
+        return valueType;
+    }
 
-        if (expr instanceof Parser.Identifier id) {
-            String name = id.token.value;
+    @Override
+    public Type visitBinary(Parser.BinaryExpression bin) {
+        Type left = analyzeExpression(bin.left);
+        Type right = analyzeExpression(bin.right);
 
-            // Handle R constants
-            switch (name) {
-                case "TRUE", "FALSE" -> { return Type.BOOLEAN; }
-                case "NULL", "NA", "NAN", "INF" -> { return Type.UNKNOWN; }
-            }
+        if (left != right) {
+            report("Type mismatch in binary expression: " + left + " " + Parser.operatorSymbol(bin.operator) + " " + right);
+            return Type.UNKNOWN;
+        }
 
-            Type type = currentScope.lookupVariable(name);
-            if (type == null) {
-                Errors.report("Variable '" + name + "' is not defined.");
-                return Type.UNKNOWN;
-            }
-            return type;
+        return left;
+    }
+
+    @Override
+    public Type visitCall(Parser.FunctionCall call) {
+        // Check function name
+        if (!(call.function instanceof Parser.Identifier id)) {
+            report("Cannot call non-identifier as function.");
+            return Type.UNKNOWN;
         }
 
-        if (expr instanceof Parser.Assignment assign) {
-            if (!(assign.target instanceof Parser.Identifier id)) {
-                Errors.report("Left-hand side of assignment must be an identifier.");
-                return Type.UNKNOWN;
+        String funcName = id.name;
+        if (funcName.equals("break") || funcName.equals("next")) {
+            if (loopDepth == 0) report("'" + funcName + "' used outside a loop.");
+            return Type.UNKNOWN;
+        }
+        if (funcName.equals("return")) {
+            if (functionDepth == 0) report("'return' used outside a function.");
+            if (call.arguments.size() > 1) report("'return' takes at most 1 argument, got " + call.arguments.size());
+            for (Parser.Expression arg : call.arguments) {
+                analyzeExpression(arg);
             }
+            return Type.UNKNOWN;
+        }
+        resolve(id);
+        FunctionSymbol func = lookupFunction(funcName);
+        Type variableType = lookupVariable(funcName);
+        if (func == null && (variableType != Type.FUNCTION)) {
+            report("Function '" + funcName + "' is not defined.");
+            return Type.UNKNOWN;
+        }
+        if (func == null) {
+            report("Function '" + funcName + "' is not defined.");
+            return Type.UNKNOWN;
+        }
 
-            String varName = id.token.value;
+        int expected = func.parameters.size();
+        int actual = call.arguments.size();
+        if (expected != actual) {
+            report("Function '" + funcName + "' expects " + expected + " arguments, got " + actual);
+        }
 
+        for (Parser.Expression arg : call.arguments) {
+            analyzeExpression(arg);
+        }
 
-            if (assign.value instanceof Parser.FunctionExpression funcExpr) {
-                // Define function name first (so it's visible in body)
-                currentScope.defineFunction(new FunctionSymbol(varName,
-                    funcExpr.parameters.stream().map(t -> t.value).toList()));
-        
-                // Analyze the function body in a new scope
-                enterScope();
-                for (RLexer3.Token param : funcExpr.parameters) {
-                    currentScope.defineVariable(param.value, Type.UNKNOWN);
-                }
-                analyzeExpression(funcExpr.body);
-                exitScope();
-        
-                currentScope.defineVariable(varName, Type.FUNCTION); // optional
-                return Type.FUNCTION;
-            }
-            Type valueType = analyzeExpression(assign.value);
-            currentScope.defineVariable(varName, valueType);
-            return valueType;
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitFunction(Parser.FunctionExpression funcExpr) {
+        analyzeFunction(funcExpr);
+        return Type.FUNCTION;
+    }
+
+    @Override
+    public Type visitIf(Parser.IfExpression ifExpr) {
+        analyzeExpression(ifExpr.condition);
+        analyzeExpression(ifExpr.thenBranch);
+        if (ifExpr.elseBranch != null) {
+            analyzeExpression(ifExpr.elseBranch);
         }
+        return Type.UNKNOWN;
+    }
 
-        if (expr instanceof Parser.BinaryExpression bin) {
-            Type left = analyzeExpression(bin.left);
-            Type right = analyzeExpression(bin.right);
+    @Override
+    public Type visitWhile(Parser.WhileExpression whileExpr) {
+        analyzeExpression(whileExpr.condition);
+        loopDepth++;
+        analyzeExpression(whileExpr.body);
+        loopDepth--;
+        return Type.UNKNOWN;
+    }
 
-            if (left != right) {
-                Errors.report("Type mismatch in binary expression: " + left + " " + bin.operator.value + " " + right);
-                return Type.UNKNOWN;
-            }
+    @Override
+    public Type visitFor(Parser.ForExpression forExpr) {
+        analyzeExpression(forExpr.iterable);
+        enterScope();
+        currentScope.declareLocal(forExpr.variable);
+        declareLocals(forExpr.body);
+        currentScope.defineVariable(forExpr.variable, Type.UNKNOWN);
+        loopDepth++;
+        analyzeExpression(forExpr.body);
+        loopDepth--;
+        forExpr.locals = currentScope.locals();
+        exitScope();
+        return Type.UNKNOWN;
+    }
 
-            return left;
+    private void analyzeFunction(Parser.FunctionExpression funcExpr) {
+        if (functionDepth == 0 && (cache != null || pool != null)) {
+            analyzeTopLevel(funcExpr);
+            return;
+        }
+        functionDepth++;
+        int outerLoops = loopDepth;
+        loopDepth = 0; // break and next do not reach loops around the definition
+        enterScope();
+        for (String param : funcExpr.parameters) {
+            currentScope.declareLocal(param);
+            currentScope.defineVariable(param, Type.UNKNOWN);
         }
+        analyzeExpression(funcExpr.body);
+        funcExpr.locals = currentScope.locals();
+        exitScope();
+        loopDepth = outerLoops;
+        functionDepth--;
+    }
 
-        if (expr instanceof Parser.FunctionCall call) {
-            // Check function name
-            if (!(call.function instanceof Parser.Identifier id)) {
-                Errors.report("Cannot call non-identifier as function.");
-                return Type.UNKNOWN;
+    // Functions outside any other function are the unit of caching and of parallel analysis
+    private void analyzeTopLevel(Parser.FunctionExpression funcExpr) {
+        String key = null;
+        if (cache != null) {
+            key = cacheKey(funcExpr);
+            Scope scope = currentScope;
+            AnalysisCache.Entry entry = cache.get(key, names -> dependencies(scope, names));
+            if (entry != null) {
+                AnalysisCache.apply(entry, funcExpr);
+                diagnostics.addAll(entry.diagnostics());
+                return;
             }
+        }
+        SemanticAnalyzer task = new SemanticAnalyzer(null);
+        task.functionDepth = 1; // Analyze the body itself instead of coming back here
+        task.currentScope = pool != null ? currentScope.snapshot() : currentScope;
+        if (cache != null) {
+            task.boundary = task.currentScope;
+            task.free = new TreeSet<>();
+        }
+        if (pool != null) {
+            deferred.add(new Deferred(diagnostics.size(), funcExpr, key, task));
+            return;
+        }
+        task.analyzeFunction(funcExpr);
+        diagnostics.addAll(task.diagnostics);
+        cache.put(key, task.entry(funcExpr));
+    }
 
-            String funcName = id.token.value;
-            FunctionSymbol func = currentScope.lookupFunction(funcName);
-            Type variableType = currentScope.lookupVariable(funcName);
-            if (func == null && (variableType != Type.FUNCTION)) {
-                Errors.report("Function '" + funcName + "' is not defined.");
-                return Type.UNKNOWN;
-            }
-            if (func == null) {
-                Errors.report("Function '" + funcName + "' is not defined.");
-                return Type.UNKNOWN;
-            }
+    // What this analyzer found for the function it was given, for the cache
+    private AnalysisCache.Entry entry(Parser.FunctionExpression funcExpr) {
+        List<String> names = List.copyOf(free);
+        return AnalysisCache.record(funcExpr, diagnostics, names, dependencies(boundary, names));
+    }
 
-            int expected = func.parameters.size();
-            int actual = call.arguments.size();
-            if (expected != actual) {
-                Errors.report("Function '" + funcName + "' expects " + expected + " arguments, got " + actual);
+    // The body's structure alone. What it depends on outside is checked against its entry.
+    private String cacheKey(Parser.FunctionExpression funcExpr) {
+        StringBuilder key = new StringBuilder();
+        AnalysisCache.describe(funcExpr, key);
+        return AnalysisCache.hash(key);
+    }
+
+    // How 'scope' shows each of 'names' to a function defined in it: variable type, lexical
+    // address and function arity
+    private static String dependencies(Scope scope, List<String> names) {
+        StringBuilder out = new StringBuilder();
+        for (String name : names) {
+            out.append(name.length()).append(':').append(name);
+            out.append(' ').append(scope.lookupVariable(name));
+            int depth = 0;
+            for (Scope outer = scope; outer != null; outer = outer.getParent(), depth++) {
+                int slot = outer.slotOf(name);
+                if (slot >= 0) {
+                    out.append(" @").append(depth).append(',').append(slot);
+                    break;
+                }
             }
+            FunctionSymbol function = scope.lookupFunction(name);
+            out.append(" f").append(function == null ? -1 : function.parameters.size()).append('\n');
+        }
+        return AnalysisCache.hash(out);
+    }
 
+    // Lookups that note the names reaching past the function being recorded
+    private Type lookupVariable(String name) {
+        if (free != null && !currentScope.findsVariableBefore(name, boundary)) free.add(name);
+        return currentScope.lookupVariable(name);
+    }
+
+    private FunctionSymbol lookupFunction(String name) {
+        if (free != null && !currentScope.findsFunctionBefore(name, boundary)) free.add(name);
+        return currentScope.lookupFunction(name);
+    }
+
+    // Reserves a slot for every name the expression binds with '<-' in the current scope.
+    // Blocks, functions and for bodies get their own scopes and are declared on entry.
+    private void declareLocals(Parser.Expression expr) {
+        if (expr instanceof Parser.Assignment assign) {
+            if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT && assign.target instanceof Parser.Identifier id) {
+                currentScope.declareLocal(id.name);
+            }
+            declareLocals(assign.value);
+        } else if (expr instanceof Parser.BinaryExpression bin) {
+            declareLocals(bin.left);
+            declareLocals(bin.right);
+        } else if (expr instanceof Parser.FunctionCall call) {
             for (Parser.Expression arg : call.arguments) {
-                analyzeExpression(arg);
+                declareLocals(arg);
             }
-
-            return Type.UNKNOWN;
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            declareLocals(ifExpr.condition);
+            declareLocals(ifExpr.thenBranch);
+            if (ifExpr.elseBranch != null) {
+                declareLocals(ifExpr.elseBranch);
+            }
+        } else if (expr instanceof Parser.WhileExpression whileExpr) {
+            declareLocals(whileExpr.condition);
+            declareLocals(whileExpr.body);
+        } else if (expr instanceof Parser.ForExpression forExpr) {
+            declareLocals(forExpr.iterable);
         }
+    }
 
-        if (expr instanceof Parser.FunctionExpression funcExpr) {
-            enterScope();
-            for (RLexer3.Token param : funcExpr.parameters) {
-                currentScope.defineVariable(param.value, Type.UNKNOWN);
+    // Marks the calls that run a builtin: those naming one that nothing in the program binds.
+    // A binding anywhere may be what the call finds at runtime, so it gets the user's function.
+    private static void markBuiltins(Parser.Expression root) {
+        Map<String, Parser.FunctionExpression> definitions = new HashMap<>();
+        Set<String> rebound = new HashSet<>();
+        collectFunctions(root, definitions, rebound, new HashMap<>());
+        List<Parser.Expression> nodes = new ArrayList<>();
+        AnalysisCache.preorder(root, nodes);
+        for (Parser.Expression node : nodes) {
+            if (node instanceof Parser.FunctionCall call && call.function instanceof Parser.Identifier id) {
+                call.builtin = Builtins.has(id.name) && !definitions.containsKey(id.name) && !rebound.contains(id.name);
             }
-            analyzeExpression(funcExpr.body);
-            exitScope();
-            return Type.FUNCTION;
         }
+    }
 
-   
+    // What one function does directly, before the functions it calls are known
+    private static final class Effects {
+        boolean impure;
+        final List<Parser.FunctionExpression> callees = new ArrayList<>();
+    }
 
-        if (expr instanceof Parser.IfExpression ifExpr) {
-            analyzeExpression(ifExpr.condition);
-            analyzeExpression(ifExpr.thenBranch);
-            if (ifExpr.elseBranch != null) {
-                analyzeExpression(ifExpr.elseBranch);
+    // Marks a function pure when its result depends only on its arguments: it does not
+    // print, its '=' and '->' assignments stay in its own frames, it reads no variables
+    // from enclosing scopes, and it calls only pure functions and builtins. A call goes to
+    // a known function only if the name is bound once in the whole program, to that
+    // function; any other callee is assumed impure.
+    private static void classifyPurity(Parser.Expression root) {
+        Map<String, Parser.FunctionExpression> definitions = new HashMap<>();
+        Set<String> rebound = new HashSet<>();
+        Map<Parser.FunctionExpression, Effects> effects = new LinkedHashMap<>();
+        collectFunctions(root, definitions, rebound, effects);
+        for (Map.Entry<Parser.FunctionExpression, Effects> entry : effects.entrySet()) {
+            scanEffects(entry.getKey().body, 1, definitions, entry.getValue());
+        }
+        // Impurity spreads from callees to callers until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Effects function : effects.values()) {
+                if (function.impure) continue;
+                for (Parser.FunctionExpression callee : function.callees) {
+                    if (effects.get(callee).impure) {
+                        function.impure = true;
+                        changed = true;
+                        break;
+                    }
+                }
             }
-            return Type.UNKNOWN;
         }
+        for (Map.Entry<Parser.FunctionExpression, Effects> entry : effects.entrySet()) {
+            entry.getKey().pure = !entry.getValue().impure;
+        }
+    }
 
-        if (expr instanceof Parser.WhileExpression whileExpr) {
-            analyzeExpression(whileExpr.condition);
-            analyzeExpression(whileExpr.body);
-            return Type.UNKNOWN;
+    private static void collectFunctions(Parser.Expression expr, Map<String, Parser.FunctionExpression> definitions,
+                                         Set<String> rebound, Map<Parser.FunctionExpression, Effects> effects) {
+        if (expr instanceof Parser.Assignment assign) {
+            if (assign.target instanceof Parser.Identifier id) {
+                String name = id.name;
+                if (assign.value instanceof Parser.FunctionExpression function
+                        && !rebound.contains(name) && !definitions.containsKey(name)) {
+                    definitions.put(name, function);
+                } else {
+                    definitions.remove(name);
+                    rebound.add(name);
+                }
+            }
+            collectFunctions(assign.value, definitions, rebound, effects);
+        } else if (expr instanceof Parser.FunctionExpression function) {
+            for (String param : function.parameters) {
+                definitions.remove(param);
+                rebound.add(param);
+            }
+            effects.put(function, new Effects());
+            collectFunctions(function.body, definitions, rebound, effects);
+        } else if (expr instanceof Parser.ForExpression forExpr) {
+            definitions.remove(forExpr.variable);
+            rebound.add(forExpr.variable);
+            collectFunctions(forExpr.iterable, definitions, rebound, effects);
+            collectFunctions(forExpr.body, definitions, rebound, effects);
+        } else if (expr instanceof Parser.BlockExpression block) {
+            for (Parser.Expression inner : block.expressions) {
+                collectFunctions(inner, definitions, rebound, effects);
+            }
+        } else if (expr instanceof Parser.BinaryExpression bin) {
+            collectFunctions(bin.left, definitions, rebound, effects);
+            collectFunctions(bin.right, definitions, rebound, effects);
+        } else if (expr instanceof Parser.FunctionCall call) {
+            for (Parser.Expression arg : call.arguments) {
+                collectFunctions(arg, definitions, rebound, effects);
+            }
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            collectFunctions(ifExpr.condition, definitions, rebound, effects);
+            collectFunctions(ifExpr.thenBranch, definitions, rebound, effects);
+            if (ifExpr.elseBranch != null) {
+                collectFunctions(ifExpr.elseBranch, definitions, rebound, effects);
+            }
+        } else if (expr instanceof Parser.WhileExpression whileExpr) {
+            collectFunctions(whileExpr.condition, definitions, rebound, effects);
+            collectFunctions(whileExpr.body, definitions, rebound, effects);
         }
+    }
 
-        if (expr instanceof Parser.ForExpression forExpr) {
-            analyzeExpression(forExpr.iterable);
-            enterScope();
-            currentScope.defineVariable(forExpr.variable.value, Type.UNKNOWN);
-            analyzeExpression(forExpr.body);
-            exitScope();
-            return Type.UNKNOWN;
+    // 'scopes' counts the scopes entered since the function's own, so an address with a
+    // smaller depth is inside the function. Nested functions are classified on their own.
+    private static void scanEffects(Parser.Expression expr, int scopes,
+                                    Map<String, Parser.FunctionExpression> definitions, Effects effects) {
+        if (effects.impure) return;
+        if (expr instanceof Parser.Identifier id) {
+            switch (id.name) {
+                case "TRUE", "FALSE", "NULL", "NA", "NAN", "INF" -> { return; }
+            }
+            if (!isLocal(id, scopes) && !definitions.containsKey(id.name)) effects.impure = true;
+        } else if (expr instanceof Parser.Assignment assign) {
+            if (assign.operator != RLexer3.TokenType.ASSIGN_LEFT
+                    && !(assign.target instanceof Parser.Identifier id && isLocal(id, scopes))) {
+                effects.impure = true;
+            }
+            scanEffects(assign.value, scopes, definitions, effects);
+        } else if (expr instanceof Parser.FunctionCall call) {
+            String name = call.function instanceof Parser.Identifier id ? id.name : null;
+            Parser.FunctionExpression callee = definitions.get(name);
+            if (callee != null) {
+                effects.callees.add(callee);
+            } else if (Builtins.has(name) ? !call.builtin : !PURE_BUILTINS.contains(name)) {
+                effects.impure = true; // print, a shadowed builtin, or a function not known at this point
+            }
+            for (Parser.Expression arg : call.arguments) {
+                scanEffects(arg, scopes, definitions, effects);
+            }
+        } else if (expr instanceof Parser.BlockExpression block) {
+            for (Parser.Expression inner : block.expressions) {
+                scanEffects(inner, scopes + 1, definitions, effects);
+            }
+        } else if (expr instanceof Parser.ForExpression forExpr) {
+            scanEffects(forExpr.iterable, scopes, definitions, effects);
+            scanEffects(forExpr.body, scopes + 1, definitions, effects);
+        } else if (expr instanceof Parser.BinaryExpression bin) {
+            scanEffects(bin.left, scopes, definitions, effects);
+            scanEffects(bin.right, scopes, definitions, effects);
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            scanEffects(ifExpr.condition, scopes, definitions, effects);
+            scanEffects(ifExpr.thenBranch, scopes, definitions, effects);
+            if (ifExpr.elseBranch != null) {
+                scanEffects(ifExpr.elseBranch, scopes, definitions, effects);
+            }
+        } else if (expr instanceof Parser.WhileExpression whileExpr) {
+            scanEffects(whileExpr.condition, scopes, definitions, effects);
+            scanEffects(whileExpr.body, scopes, definitions, effects);
         }
+    }
 
-        Errors.report("Unhandled expression type: " + expr.getClass().getSimpleName());
-        return Type.UNKNOWN;
+    private static boolean isLocal(Parser.Identifier id, int scopes) {
+        return id.slot >= 0 && id.depth < scopes;
+    }
+
+    // Binds the identifier to the innermost scope that declares its name anywhere.
+    // Names only bound in the global scope stay unresolved and are looked up by name.
+    private void resolve(Parser.Identifier id) {
+        int depth = 0;
+        for (Scope scope = currentScope; scope != null; scope = scope.getParent()) {
+            if (scope == boundary && free != null) free.add(id.name);
+            int slot = scope.slotOf(id.name);
+            if (slot >= 0) {
+                id.depth = depth;
+                id.slot = slot;
+                return;
+            }
+            depth++;
+        }
     }
 
     private void enterScope() {
@@ -0,0 +1,26 @@
+// Source spans packed into a single long: start offset in the high 32 bits, end offset in the low 32 bits.
+public final class Span {
+    public static final long NONE = 0L;
+
+    private Span() {}
+
+    public static long of(int start, int end) {
+        return ((long) start << 32) | (end & 0xFFFFFFFFL);
+    }
+
+    public static int start(long span) {
+        return (int) (span >>> 32);
+    }
+
+    public static int end(long span) {
+        return (int) span;
+    }
+
+    public static int length(long span) {
+        return end(span) - start(span);
+    }
+
+    public static long cover(long first, long last) {
+        return of(start(first), end(last));
+    }
+}
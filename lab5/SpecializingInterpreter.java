@@ -0,0 +1,715 @@
+import java.util.*;
+
+// Alternative execution tier: the analyzed AST is translated into executable nodes that
+// rewrite themselves to match the operand types they actually see. A numeric node works
+// on unboxed doubles; when its assumption breaks it replaces itself with a generic node.
+public class SpecializingInterpreter {
+
+    // A value that did not have the type a specialized execute method promised
+    static final class UnexpectedResult extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        UnexpectedResult(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    abstract static class Node {
+        Node parent;
+        boolean replaced; // An activation that started before a rewrite may still be running
+
+        abstract Object execute(Environment env);
+
+        double executeDouble(Environment env) throws UnexpectedResult {
+            Object value = execute(env);
+            if (value instanceof Double d) return d;
+            throw new UnexpectedResult(value);
+        }
+
+        boolean executeBoolean(Environment env) {
+            return Operations.asBoolean(execute(env));
+        }
+
+        <T extends Node> T adopt(T child) {
+            if (child != null) child.parent = this;
+            return child;
+        }
+
+        // Puts the replacement where this node is in its parent; this node is discarded
+        <T extends Node> T replace(T replacement) {
+            replaced = true;
+            replacement.parent = parent;
+            parent.replaceChild(this, replacement);
+            return replacement;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            throw new IllegalStateException(getClass().getSimpleName() + " has no child " + oldChild);
+        }
+
+        static Node[] replaceIn(Node[] children, Node oldChild, Node newChild) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == oldChild) children[i] = newChild;
+            }
+            return children;
+        }
+    }
+
+    // Parent of a whole tree, so the top node can be rewritten like any other
+    static final class RootNode extends Node {
+        Node body;
+
+        RootNode(Node body) {
+            this.body = adopt(body);
+        }
+
+        Object execute(Environment env) {
+            return body.execute(env);
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            if (body == oldChild) body = newChild;
+        }
+    }
+
+    static final class ConstantNode extends Node {
+        final Object value;
+
+        ConstantNode(Object value) {
+            this.value = value;
+        }
+
+        Object execute(Environment env) {
+            return value;
+        }
+    }
+
+    // Raises a runtime error once reached; stands in for nodes the tree walker rejects at runtime
+    static final class FailNode extends Node {
+        final String message;
+
+        FailNode(String message) {
+            this.message = message;
+        }
+
+        Object execute(Environment env) {
+            throw new RuntimeException(message);
+        }
+    }
+
+    static final class ReadSlotNode extends Node {
+        final int depth;
+        final int slot;
+        final String name;
+
+        ReadSlotNode(int depth, int slot, String name) {
+            this.depth = depth;
+            this.slot = slot;
+            this.name = name;
+        }
+
+        Object execute(Environment env) {
+            return env.getAt(depth, slot, name);
+        }
+    }
+
+    static final class ReadNameNode extends Node {
+        final String name;
+
+        ReadNameNode(String name) {
+            this.name = name;
+        }
+
+        Object execute(Environment env) {
+            return env.get(name);
+        }
+    }
+
+    // '<-' and '=' on a resolved or an unresolved name
+    static final class WriteNode extends Node {
+        final boolean define;
+        final int depth;
+        final int slot;
+        final String name;
+        Node value;
+
+        WriteNode(boolean define, int depth, int slot, String name, Node value) {
+            this.define = define;
+            this.depth = depth;
+            this.slot = slot;
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        Object execute(Environment env) {
+            Object result = value.execute(env);
+            if (define) {
+                if (slot >= 0) env.defineAt(slot, result);
+                else env.define(name, result);
+            } else {
+                if (slot >= 0) env.assignAt(depth, slot, name, result);
+                else env.assign(name, result);
+            }
+            return result;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            if (value == oldChild) value = newChild;
+        }
+    }
+
+    abstract static class BinaryNode extends Node {
+        final RLexer3.TokenType operator;
+        Node left;
+        Node right;
+
+        BinaryNode(RLexer3.TokenType operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            if (left == oldChild) left = newChild;
+            if (right == oldChild) right = newChild;
+        }
+
+        // The specialization no longer holds; from now on this operator is generic
+        Object deoptimize(Object leftValue, Object rightValue) {
+            if (!replaced) replace(new GenericBinaryNode(operator, left, right));
+            return Operations.binary(operator, leftValue, rightValue);
+        }
+    }
+
+    // Not executed yet; the first operands decide the specialization
+    static final class UninitializedBinaryNode extends BinaryNode {
+        UninitializedBinaryNode(RLexer3.TokenType operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        Object execute(Environment env) {
+            Object leftValue = left.execute(env);
+            Object rightValue = right.execute(env);
+            if (!replaced) replace(specialize(leftValue, rightValue));
+            return Operations.binary(operator, leftValue, rightValue);
+        }
+
+        private BinaryNode specialize(Object leftValue, Object rightValue) {
+            if (leftValue instanceof Double && rightValue instanceof Double && DoubleArithmeticNode.supports(operator)) {
+                return new DoubleArithmeticNode(operator, left, right);
+            }
+            if (leftValue instanceof Double && rightValue instanceof Double && DoubleComparisonNode.supports(operator)) {
+                return new DoubleComparisonNode(operator, left, right);
+            }
+            if (leftValue instanceof String && rightValue instanceof String && operator == RLexer3.TokenType.EQ) {
+                return new StringEqualsNode(operator, left, right);
+            }
+            return new GenericBinaryNode(operator, left, right);
+        }
+    }
+
+    static final class DoubleArithmeticNode extends BinaryNode {
+        DoubleArithmeticNode(RLexer3.TokenType operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        static boolean supports(RLexer3.TokenType operator) {
+            return switch (operator) {
+                case PLUS, MINUS, MULTIPLY, DIVIDE -> true;
+                default -> false;
+            };
+        }
+
+        Object execute(Environment env) {
+            try {
+                return executeDouble(env);
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        double executeDouble(Environment env) throws UnexpectedResult {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult e) {
+                return expectDouble(deoptimize(e.value, right.execute(env)));
+            }
+            double r;
+            try {
+                r = right.executeDouble(env);
+            } catch (UnexpectedResult e) {
+                return expectDouble(deoptimize(l, e.value));
+            }
+            switch (operator) {
+                case PLUS: return l + r;
+                case MINUS: return l - r;
+                case MULTIPLY: return l * r;
+                default: return l / r;
+            }
+        }
+
+        private static double expectDouble(Object value) throws UnexpectedResult {
+            if (value instanceof Double d) return d;
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    static final class DoubleComparisonNode extends BinaryNode {
+        DoubleComparisonNode(RLexer3.TokenType operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        static boolean supports(RLexer3.TokenType operator) {
+            return switch (operator) {
+                case LT, GT, EQ -> true;
+                default -> false;
+            };
+        }
+
+        Object execute(Environment env) {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult e) {
+                return deoptimize(e.value, right.execute(env));
+            }
+            double r;
+            try {
+                r = right.executeDouble(env);
+            } catch (UnexpectedResult e) {
+                return deoptimize(l, e.value);
+            }
+            return compare(l, r);
+        }
+
+        boolean executeBoolean(Environment env) {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult e) {
+                return Operations.asBoolean(deoptimize(e.value, right.execute(env)));
+            }
+            double r;
+            try {
+                r = right.executeDouble(env);
+            } catch (UnexpectedResult e) {
+                return Operations.asBoolean(deoptimize(l, e.value));
+            }
+            return compare(l, r);
+        }
+
+        private boolean compare(double l, double r) {
+            switch (operator) {
+                case LT: return l < r;
+                case GT: return l > r;
+                // Same result as Double.equals, which the generic path uses
+                default: return Double.doubleToLongBits(l) == Double.doubleToLongBits(r);
+            }
+        }
+    }
+
+    static final class StringEqualsNode extends BinaryNode {
+        StringEqualsNode(RLexer3.TokenType operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        Object execute(Environment env) {
+            return executeBoolean(env);
+        }
+
+        boolean executeBoolean(Environment env) {
+            Object l = left.execute(env);
+            Object r = right.execute(env);
+            if (l instanceof String a && r instanceof String b) return a.equals(b);
+            return Operations.asBoolean(deoptimize(l, r));
+        }
+    }
+
+    static final class GenericBinaryNode extends BinaryNode {
+        GenericBinaryNode(RLexer3.TokenType operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        Object execute(Environment env) {
+            Object l = left.execute(env);
+            Object r = right.execute(env);
+            return Operations.binary(operator, l, r);
+        }
+    }
+
+    static final class BlockNode extends Node {
+        final String[] locals;
+        final boolean framed;
+        final Node[] body;
+
+        BlockNode(String[] locals, boolean framed, Node[] body) {
+            this.locals = locals;
+            this.framed = framed;
+            this.body = body;
+            for (Node node : body) adopt(node);
+        }
+
+        Object execute(Environment env) {
+            Environment frame = framed ? newFrame(env, locals) : env;
+            Object result = null;
+            for (Node node : body) {
+                result = node.execute(frame);
+            }
+            return result;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            replaceIn(body, oldChild, newChild);
+        }
+    }
+
+    static final class IfNode extends Node {
+        Node condition;
+        Node thenBranch;
+        Node elseBranch;
+
+        IfNode(Node condition, Node thenBranch, Node elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        Object execute(Environment env) {
+            if (condition.executeBoolean(env)) return thenBranch.execute(env);
+            if (elseBranch != null) return elseBranch.execute(env);
+            return null;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            if (condition == oldChild) condition = newChild;
+            if (thenBranch == oldChild) thenBranch = newChild;
+            if (elseBranch == oldChild) elseBranch = newChild;
+        }
+    }
+
+    static final class WhileNode extends Node {
+        Node condition;
+        Node body;
+
+        WhileNode(Node condition, Node body) {
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+        }
+
+        Object execute(Environment env) {
+            while (condition.executeBoolean(env)) {
+                try {
+                    body.execute(env);
+                } catch (LoopSignal signal) {
+                    if (signal == LoopSignal.BREAK) break;
+                }
+            }
+            return null;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            if (condition == oldChild) condition = newChild;
+            if (body == oldChild) body = newChild;
+        }
+    }
+
+    static final class ForNode extends Node {
+        final String variable;
+        final String[] locals;
+        final boolean reusesFrame;
+        Node iterable;
+        Node body;
+
+        ForNode(String variable, String[] locals, boolean reusesFrame, Node iterable, Node body) {
+            this.variable = variable;
+            this.locals = locals;
+            this.reusesFrame = reusesFrame;
+            this.iterable = adopt(iterable);
+            this.body = adopt(body);
+        }
+
+        Object execute(Environment env) {
+            RangeVector range = Operations.loopRange(iterable.execute(env));
+            Environment loopScope = null;
+            for (long i = 0; i < range.length; i++) {
+                double value = range.start + i * range.step;
+                if (loopScope != null && reusesFrame && !loopScope.isCaptured()) loopScope.reset();
+                else loopScope = newFrame(env, locals);
+                if (locals != null) loopScope.defineAt(0, value); // The loop variable is declared first
+                else loopScope.define(variable, value);
+                try {
+                    body.execute(loopScope);
+                } catch (LoopSignal signal) {
+                    if (signal == LoopSignal.BREAK) break;
+                }
+            }
+            return null;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            if (iterable == oldChild) iterable = newChild;
+            if (body == oldChild) body = newChild;
+        }
+    }
+
+    static final class FunctionNode extends Node {
+        final Parser.FunctionExpression function;
+
+        FunctionNode(Parser.FunctionExpression function) {
+            this.function = function;
+        }
+
+        Object execute(Environment env) {
+            return new FunctionValue(function.parameters, function.locals, function.body, env, function.pure);
+        }
+    }
+
+    static final class PrintNode extends Node {
+        final Node[] arguments;
+
+        PrintNode(Node[] arguments) {
+            this.arguments = arguments;
+            for (Node node : arguments) adopt(node);
+        }
+
+        Object execute(Environment env) {
+            for (Node argument : arguments) {
+                Operations.print(argument.execute(env));
+            }
+            return null;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            replaceIn(arguments, oldChild, newChild);
+        }
+    }
+
+    static final class ReturnNode extends Node {
+        Node value;
+
+        ReturnNode(Node value) {
+            this.value = adopt(value);
+        }
+
+        Object execute(Environment env) {
+            throw new ReturnValue(value.execute(env));
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            if (value == oldChild) value = newChild;
+        }
+    }
+
+    static final class SignalNode extends Node {
+        final LoopSignal signal;
+
+        SignalNode(LoopSignal signal) {
+            this.signal = signal;
+        }
+
+        Object execute(Environment env) {
+            throw signal;
+        }
+    }
+
+    static final class BuiltinNode extends Node {
+        final String name;
+        final Node[] arguments;
+
+        BuiltinNode(String name, Node[] arguments) {
+            this.name = name;
+            this.arguments = arguments;
+            for (Node node : arguments) adopt(node);
+        }
+
+        Object execute(Environment env) {
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = arguments[i].execute(env);
+            }
+            return Builtins.call(name, values);
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            replaceIn(arguments, oldChild, newChild);
+        }
+    }
+
+    // Evaluates its own arguments: a promise holds the argument's index rather than its node,
+    // which may have been replaced by a specialization in the meantime
+    static final class CallNode extends Node implements Promise.Evaluator, Calls.Body {
+        final SpecializingInterpreter interpreter;
+        final String name;
+        final InlineCache cache;
+        final boolean tail;
+        final Node[] arguments;
+        final List<Integer> positions;
+        final Parser.Expression[] deferred;
+
+        CallNode(SpecializingInterpreter interpreter, Parser.Identifier callee, boolean tail, Node[] arguments,
+                 Parser.Expression[] deferred) {
+            this.interpreter = interpreter;
+            this.name = callee.name;
+            this.cache = new InlineCache(callee);
+            this.tail = tail;
+            this.arguments = arguments;
+            this.positions = Calls.positions(arguments.length);
+            this.deferred = deferred;
+            for (Node node : arguments) adopt(node);
+        }
+
+        public Object evaluate(Object code, Environment env) {
+            return arguments[(Integer) code].execute(env);
+        }
+
+        public Object run(FunctionValue function, Environment frame) {
+            return body(function).execute(frame);
+        }
+
+        Object execute(Environment env) {
+            FunctionValue function = cache.function(env);
+            return interpreter.calls.call(name, function, positions, deferred, tail, this, env, this);
+        }
+
+        private RootNode body(FunctionValue function) {
+            RootNode body = (RootNode) cache.target(function.body);
+            if (body == null) {
+                body = interpreter.body(function);
+                cache.remember(function.body, body);
+            }
+            return body;
+        }
+
+        void replaceChild(Node oldChild, Node newChild) {
+            replaceIn(arguments, oldChild, newChild);
+        }
+    }
+
+    private final Environment globals = new Environment(null);
+    // Function bodies are translated on their first call and specialize across calls
+    private final Map<Parser.BlockExpression, RootNode> bodies = new IdentityHashMap<>();
+    private final Calls calls = new Calls();
+
+    public SpecializingInterpreter withMemo(MemoCache memo) {
+        calls.withMemo(memo);
+        return this;
+    }
+
+    public void interpret(Parser.Expression root) {
+        try {
+            new RootNode(build(root)).execute(globals);
+        } catch (RuntimeException e) {
+            System.err.println("[Runtime Error] " + e.getMessage());
+        } catch (StackOverflowError e) {
+            System.err.println("[Runtime Error] " + Operations.NESTED_TOO_DEEPLY);
+        }
+    }
+
+    private RootNode body(FunctionValue function) {
+        RootNode body = bodies.get(function.body);
+        if (body == null) {
+            body = new RootNode(build(function.body));
+            bodies.put(function.body, body);
+        }
+        return body;
+    }
+
+    Node build(Parser.Expression expr) {
+        if (expr == null) {
+            return null;
+        }
+
+        if (expr instanceof Parser.NumberLiteral num) {
+            if (num.constant != null) {
+                return new ConstantNode(num.constant);
+            }
+            try {
+                return new ConstantNode(Double.parseDouble(num.value));
+            } catch (NumberFormatException e) {
+                return new FailNode(e.getMessage());
+            }
+        }
+
+        if (expr instanceof Parser.StringLiteral str) {
+            return new ConstantNode(str.value);
+        }
+
+        if (expr instanceof Parser.LogicalLiteral logical) {
+            return new ConstantNode(logical.value);
+        }
+
+        if (expr instanceof Parser.Identifier id) {
+            if (id.slot >= 0) return new ReadSlotNode(id.depth, id.slot, id.name);
+            return new ReadNameNode(id.name);
+        }
+
+        if (expr instanceof Parser.Assignment assign) {
+            if (!(assign.target instanceof Parser.Identifier id)) {
+                return new FailNode("Left-hand side of assignment must be identifier.");
+            }
+            boolean define = assign.operator == RLexer3.TokenType.ASSIGN_LEFT;
+            return new WriteNode(define, id.depth, id.slot, id.name, build(assign.value));
+        }
+
+        if (expr instanceof Parser.BinaryExpression bin) {
+            return new UninitializedBinaryNode(bin.operator, build(bin.left), build(bin.right));
+        }
+
+        if (expr instanceof Parser.BlockExpression block) {
+            return new BlockNode(block.locals, block.framed, buildAll(block.expressions));
+        }
+
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            return new IfNode(build(ifExpr.condition), build(ifExpr.thenBranch), build(ifExpr.elseBranch));
+        }
+
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            return new WhileNode(build(whileExpr.condition), build(whileExpr.body));
+        }
+
+        if (expr instanceof Parser.ForExpression forExpr) {
+            return new ForNode(forExpr.variable, forExpr.locals, forExpr.reusesFrame, build(forExpr.iterable), build(forExpr.body));
+        }
+
+        if (expr instanceof Parser.FunctionExpression funcExpr) {
+            return new FunctionNode(funcExpr);
+        }
+
+        if (expr instanceof Parser.FunctionCall call) {
+            if (!(call.function instanceof Parser.Identifier id)) {
+                return new FailNode("Can only call named functions.");
+            }
+            if (id.name.equals("print")) {
+                return new PrintNode(buildAll(call.arguments));
+            }
+            if (id.name.equals("return")) {
+                if (call.arguments.size() > 1) return new FailNode("multi-argument returns are not permitted");
+                return new ReturnNode(call.arguments.isEmpty() ? new ConstantNode(null) : build(call.arguments.get(0)));
+            }
+            if (id.name.equals("break")) return new SignalNode(LoopSignal.BREAK);
+            if (id.name.equals("next")) return new SignalNode(LoopSignal.NEXT);
+            if (call.builtin) {
+                return new BuiltinNode(id.name, buildAll(call.arguments));
+            }
+            return new CallNode(this, id, call.tail, buildAll(call.arguments), Promise.deferred(call.arguments));
+        }
+
+        return new FailNode("Unknown expression type: " + expr.getClass().getSimpleName());
+    }
+
+    private Node[] buildAll(List<Parser.Expression> expressions) {
+        Node[] nodes = new Node[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = build(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    private static Environment newFrame(Environment parent, String[] locals) {
+        return locals != null ? new Environment(parent, locals) : new Environment(parent);
+    }
+}
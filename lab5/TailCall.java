@@ -0,0 +1,14 @@
+// A call in tail position, handed back to the caller's trampoline instead of being run on top
+// of the Java stack. Each engine keeps one and the trampoline reads it as soon as it arrives.
+public final class TailCall {
+    FunctionValue function;
+    Environment frame; // The callee's frame, arguments already bound
+    Object key; // Its memo key, under which the trampoline stores the result; null if not memoized
+
+    TailCall set(FunctionValue function, Environment frame, Object key) {
+        this.function = function;
+        this.frame = frame;
+        this.key = key;
+        return this;
+    }
+}
@@ -0,0 +1,220 @@
+import java.util.*;
+
+// Flow-sensitive type inference over the AST. Each expression gets the type its value is
+// known to have every time it is evaluated; anything that cannot be proven stays UNKNOWN.
+// The interpreter uses NUMBER and BOOLEAN annotations to run arithmetic and comparisons on
+// primitives, guarded at runtime in case an annotation turns out to be wrong.
+public class TypeInferencer {
+    // Variable types per runtime frame, innermost last
+    private List<Map<String, Type>> frames = new ArrayList<>();
+    // Names a function body can rebind in an enclosing frame with '=' or '->'
+    private final Set<String> unstable = new HashSet<>();
+
+    public TypeInferencer() {
+        frames.add(new HashMap<>()); // Global frame
+    }
+
+    public void infer(Parser.Expression root) {
+        collectUnstable(root, false);
+        visit(root);
+    }
+
+    private Type visit(Parser.Expression expr) {
+        Type type = inferExpression(expr);
+        expr.type = type;
+        return type;
+    }
+
+    private Type inferExpression(Parser.Expression expr) {
+        if (expr instanceof Parser.NumberLiteral) {
+            return Type.NUMBER;
+        }
+
+        if (expr instanceof Parser.StringLiteral) {
+            return Type.STRING;
+        }
+
+        if (expr instanceof Parser.LogicalLiteral) {
+            return Type.BOOLEAN;
+        }
+
+        if (expr instanceof Parser.Identifier id) {
+            id.stable = !unstable.contains(id.name);
+            return lookup(id.name);
+        }
+
+        if (expr instanceof Parser.Assignment assign) {
+            Type type = visit(assign.value);
+            if (assign.target instanceof Parser.Identifier id) {
+                id.type = type;
+                if (assign.operator == RLexer3.TokenType.ASSIGN_LEFT) {
+                    frames.get(frames.size() - 1).put(id.name, type);
+                } else {
+                    for (int i = frames.size() - 1; i >= 0; i--) {
+                        if (frames.get(i).containsKey(id.name)) {
+                            frames.get(i).put(id.name, type);
+                            break;
+                        }
+                    }
+                }
+            }
+            return type;
+        }
+
+        if (expr instanceof Parser.BinaryExpression bin) {
+            Type left = visit(bin.left);
+            Type right = visit(bin.right);
+            boolean numeric = left == Type.NUMBER && right == Type.NUMBER;
+            return switch (bin.operator) {
+                case PLUS, MINUS, MULTIPLY, DIVIDE -> numeric ? Type.NUMBER : Type.UNKNOWN;
+                case LT, GT -> numeric ? Type.BOOLEAN : Type.UNKNOWN;
+                case EQ -> Type.BOOLEAN;
+                default -> Type.UNKNOWN;
+            };
+        }
+
+        if (expr instanceof Parser.BlockExpression block) {
+            frames.add(new HashMap<>());
+            Type result = Type.UNKNOWN;
+            for (Parser.Expression inner : block.expressions) {
+                result = visit(inner);
+            }
+            frames.remove(frames.size() - 1);
+            return result;
+        }
+
+        if (expr instanceof Parser.IfExpression ifExpr) {
+            visit(ifExpr.condition);
+            List<Map<String, Type>> before = copy(frames);
+            Type thenType = visit(ifExpr.thenBranch);
+            List<Map<String, Type>> afterThen = frames;
+            frames = before;
+            // A missing else branch evaluates to NULL
+            Type elseType = ifExpr.elseBranch != null ? visit(ifExpr.elseBranch) : Type.UNKNOWN;
+            frames = join(afterThen, frames);
+            return thenType == elseType ? thenType : Type.UNKNOWN;
+        }
+
+        if (expr instanceof Parser.WhileExpression whileExpr) {
+            // Iterate to a fixed point; the last pass annotates with the loop-invariant state
+            while (true) {
+                List<Map<String, Type>> entry = copy(frames);
+                visit(whileExpr.condition);
+                visit(whileExpr.body);
+                frames = join(entry, frames);
+                if (frames.equals(entry)) break;
+            }
+            return Type.UNKNOWN;
+        }
+
+        if (expr instanceof Parser.ForExpression forExpr) {
+            visit(forExpr.iterable);
+            while (true) {
+                List<Map<String, Type>> entry = copy(frames);
+                Map<String, Type> loopFrame = new HashMap<>();
+                loopFrame.put(forExpr.variable, Type.NUMBER);
+                frames.add(loopFrame);
+                visit(forExpr.body);
+                frames.remove(frames.size() - 1);
+                frames = join(entry, frames);
+                if (frames.equals(entry)) break;
+            }
+            return Type.UNKNOWN;
+        }
+
+        if (expr instanceof Parser.FunctionExpression funcExpr) {
+            // Outer variables may change between definition and call, so the body starts
+            // from a state where only the parameters are known to exist
+            List<Map<String, Type>> outer = frames;
+            frames = new ArrayList<>();
+            Map<String, Type> params = new HashMap<>();
+            for (String param : funcExpr.parameters) {
+                params.put(param, Type.UNKNOWN);
+            }
+            frames.add(params);
+            visit(funcExpr.body);
+            frames = outer;
+            return Type.FUNCTION;
+        }
+
+        if (expr instanceof Parser.FunctionCall call) {
+            for (Parser.Expression arg : call.arguments) {
+                visit(arg);
+            }
+            return Type.UNKNOWN;
+        }
+
+        return Type.UNKNOWN;
+    }
+
+    private Type lookup(String name) {
+        if (unstable.contains(name)) return Type.UNKNOWN;
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            Type type = frames.get(i).get(name);
+            if (type != null) return type;
+        }
+        return Type.UNKNOWN;
+    }
+
+    private void collectUnstable(Parser.Expression expr, boolean inFunction) {
+        if (expr == null) return;
+        if (expr instanceof Parser.Assignment assign) {
+            if (inFunction && assign.operator != RLexer3.TokenType.ASSIGN_LEFT
+                    && assign.target instanceof Parser.Identifier id) {
+                unstable.add(id.name);
+            }
+            collectUnstable(assign.value, inFunction);
+        } else if (expr instanceof Parser.BinaryExpression bin) {
+            collectUnstable(bin.left, inFunction);
+            collectUnstable(bin.right, inFunction);
+        } else if (expr instanceof Parser.BlockExpression block) {
+            for (Parser.Expression inner : block.expressions) {
+                collectUnstable(inner, inFunction);
+            }
+        } else if (expr instanceof Parser.IfExpression ifExpr) {
+            collectUnstable(ifExpr.condition, inFunction);
+            collectUnstable(ifExpr.thenBranch, inFunction);
+            collectUnstable(ifExpr.elseBranch, inFunction);
+        } else if (expr instanceof Parser.WhileExpression whileExpr) {
+            collectUnstable(whileExpr.condition, inFunction);
+            collectUnstable(whileExpr.body, inFunction);
+        } else if (expr instanceof Parser.ForExpression forExpr) {
+            collectUnstable(forExpr.iterable, inFunction);
+            collectUnstable(forExpr.body, inFunction);
+        } else if (expr instanceof Parser.FunctionExpression funcExpr) {
+            collectUnstable(funcExpr.body, true);
+        } else if (expr instanceof Parser.FunctionCall call) {
+            for (Parser.Expression arg : call.arguments) {
+                collectUnstable(arg, inFunction);
+            }
+        }
+    }
+
+    private static List<Map<String, Type>> copy(List<Map<String, Type>> state) {
+        List<Map<String, Type>> result = new ArrayList<>(state.size());
+        for (Map<String, Type> frame : state) {
+            result.add(new HashMap<>(frame));
+        }
+        return result;
+    }
+
+    // Merge of two control-flow paths over the same frames. A name bound on only one
+    // path may or may not exist afterwards, so it becomes UNKNOWN.
+    private static List<Map<String, Type>> join(List<Map<String, Type>> a, List<Map<String, Type>> b) {
+        List<Map<String, Type>> result = new ArrayList<>(a.size());
+        for (int i = 0; i < a.size(); i++) {
+            Map<String, Type> left = a.get(i);
+            Map<String, Type> right = b.get(i);
+            Map<String, Type> merged = new HashMap<>();
+            for (Map.Entry<String, Type> entry : left.entrySet()) {
+                Type other = right.get(entry.getKey());
+                merged.put(entry.getKey(), entry.getValue() == other ? other : Type.UNKNOWN);
+            }
+            for (String name : right.keySet()) {
+                merged.putIfAbsent(name, Type.UNKNOWN);
+            }
+            result.add(merged);
+        }
+        return result;
+    }
+}
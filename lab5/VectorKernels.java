@@ -0,0 +1,18 @@
+// Element-wise loops over the index range [from, to) of the output. Operands are either
+// arrays as long as the output or a single number applied to every element. Implementations
+// must give bit-identical results, so switching between them never changes program output.
+public interface VectorKernels {
+    // PLUS, MINUS, MULTIPLY or DIVIDE
+    void arithmetic(RLexer3.TokenType operator, double[] left, double[] right, double[] out, int from, int to);
+
+    void arithmetic(RLexer3.TokenType operator, double[] left, double right, double[] out, int from, int to);
+
+    void arithmetic(RLexer3.TokenType operator, double left, double[] right, double[] out, int from, int to);
+
+    // LT, GT or EQ
+    void compare(RLexer3.TokenType operator, double[] left, double[] right, boolean[] out, int from, int to);
+
+    void compare(RLexer3.TokenType operator, double[] left, double right, boolean[] out, int from, int to);
+
+    void compare(RLexer3.TokenType operator, double left, double[] right, boolean[] out, int from, int to);
+}
@@ -0,0 +1,129 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongFunction;
+
+// Element-wise operators on vectors, following R's recycling rule: the shorter operand is
+// repeated up to the length of the longer one, and a zero-length operand gives an empty
+// result. Numbers and TRUE/FALSE act as vectors of length one.
+public final class VectorOps {
+    private static final int MAX_PRINT = 1000;
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    // Vectors longer than this are split across the common ForkJoinPool. Set it with
+    // -Dvectors.parallelThreshold=<elements>.
+    public static final int PARALLEL_THRESHOLD = Integer.getInteger("vectors.parallelThreshold", 1 << 16);
+    // SimdKernels when it was compiled and the Vector API module is present
+    public static final VectorKernels SEQUENTIAL = loadKernels();
+    public static final VectorKernels KERNELS =
+        new ParallelKernels(SEQUENTIAL, ForkJoinPool.commonPool(), PARALLEL_THRESHOLD);
+    public static final Reductions REDUCTIONS = new Reductions(ForkJoinPool.commonPool(), PARALLEL_THRESHOLD);
+
+    private VectorOps() {}
+
+    public static Object binary(RLexer3.TokenType operator, Object left, Object right) {
+        long leftLength = length(left);
+        long rightLength = length(right);
+        if (operator == RLexer3.TokenType.SEQUENCE) {
+            if (leftLength != 1 || rightLength != 1) {
+                throw new RuntimeException("Sequence bounds must be single numbers.");
+            }
+            return RangeVector.of(number(left), number(right));
+        }
+        boolean comparison = switch (operator) {
+            case PLUS, MINUS, MULTIPLY, DIVIDE -> false;
+            case LT, GT, EQ -> true;
+            default -> throw ScalarKernels.unsupported(operator);
+        };
+        long length = leftLength == 0 || rightLength == 0 ? 0 : Math.max(leftLength, rightLength);
+        if (length > MAX_ARRAY) {
+            throw new RuntimeException("Cannot allocate a vector of length " + length + ".");
+        }
+        double[] numbers = comparison ? null : new double[(int) length];
+        boolean[] logicals = comparison ? new boolean[(int) length] : null;
+
+        if (length == 0) {
+            // Nothing to compute
+        } else if (leftLength == 1) {
+            double l = number(left);
+            double[] r = numbers(right);
+            if (comparison) KERNELS.compare(operator, l, r, logicals, 0, (int) length);
+            else KERNELS.arithmetic(operator, l, r, numbers, 0, (int) length);
+        } else if (rightLength == 1) {
+            double[] l = numbers(left);
+            double r = number(right);
+            if (comparison) KERNELS.compare(operator, l, r, logicals, 0, (int) length);
+            else KERNELS.arithmetic(operator, l, r, numbers, 0, (int) length);
+        } else if (leftLength == rightLength) {
+            double[] l = numbers(left);
+            double[] r = numbers(right);
+            if (comparison) KERNELS.compare(operator, l, r, logicals, 0, (int) length);
+            else KERNELS.arithmetic(operator, l, r, numbers, 0, (int) length);
+        } else {
+            recycle(operator, numbers(left), numbers(right), numbers, logicals);
+        }
+        return comparison ? new LogicalVector(logicals) : new NumericVector(numbers);
+    }
+
+    // Operands of different lengths, neither of them one; rare enough to stay scalar
+    private static void recycle(RLexer3.TokenType operator, double[] left, double[] right, double[] numbers, boolean[] logicals) {
+        int length = Math.max(left.length, right.length);
+        if (length % Math.min(left.length, right.length) != 0) {
+            System.err.println("[Warning] Longer object length is not a multiple of shorter object length.");
+        }
+        for (int i = 0; i < length; i++) {
+            double l = left[i % left.length];
+            double r = right[i % right.length];
+            switch (operator) {
+                case PLUS: numbers[i] = l + r; break;
+                case MINUS: numbers[i] = l - r; break;
+                case MULTIPLY: numbers[i] = l * r; break;
+                case DIVIDE: numbers[i] = l / r; break;
+                case LT: logicals[i] = l < r; break;
+                case GT: logicals[i] = l > r; break;
+                default: logicals[i] = Double.compare(l, r) == 0; break; // As Double.equals on scalars
+            }
+        }
+    }
+
+    private static long length(Object value) {
+        if (value instanceof VectorValue vector) return vector.length();
+        if (value instanceof Double || value instanceof Boolean) return 1;
+        throw new RuntimeException("Non-numeric argument to binary operator.");
+    }
+
+    // The only element of an operand of length one
+    private static double number(Object value) {
+        if (value instanceof Double d) return d;
+        if (value instanceof Boolean b) return b ? 1 : 0;
+        return ((VectorValue) value).number(0);
+    }
+
+    private static double[] numbers(Object value) {
+        if (value instanceof VectorValue vector) return vector.numbers();
+        return new double[] { number(value) };
+    }
+
+    static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    // R's layout for a printed vector, cut short after MAX_PRINT elements
+    static String print(VectorValue vector, LongFunction<String> element) {
+        StringBuilder out = new StringBuilder("[1]");
+        long shown = Math.min(vector.length(), MAX_PRINT);
+        for (long i = 0; i < shown; i++) {
+            out.append(' ').append(element.apply(i));
+        }
+        if (shown < vector.length()) {
+            out.append(" [ omitted ").append(vector.length() - shown).append(" entries ]");
+        }
+        return out.toString();
+    }
+
+    private static VectorKernels loadKernels() {
+        try {
+            return (VectorKernels) Class.forName("SimdKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarKernels();
+        }
+    }
+}
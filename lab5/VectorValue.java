@@ -0,0 +1,11 @@
+// Values with R's vector semantics. Arithmetic and comparisons on them work element-wise
+// in VectorOps; plain Double scalars keep their own fast paths in every engine.
+public sealed interface VectorValue permits NumericVector, LogicalVector, RangeVector {
+    long length();
+
+    // Element i as a number; logical elements are 1 or 0
+    double number(long i);
+
+    // All elements as numbers. May be the vector's own storage, so callers must not write to it.
+    double[] numbers();
+}
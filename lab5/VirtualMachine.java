@@ -0,0 +1,410 @@
+import java.util.*;
+
+// Runs compiled Chunks on an operand stack. Values, frames and error messages are the
+// ones the tree-walking Interpreter uses, so both engines produce the same output.
+public class VirtualMachine {
+
+    // Position in a running for-loop; lives on the operand stack under the body's values
+    private static final class ForState {
+        final RangeVector range;
+        final boolean reusesFrame;
+        Environment frame; // Kept for the next iteration when reusesFrame is set
+        long next;
+
+        ForState(RangeVector range, boolean reusesFrame) {
+            this.range = range;
+            this.reusesFrame = reusesFrame;
+        }
+
+        boolean done() {
+            return next >= range.length;
+        }
+
+        double advance() {
+            return range.start + next++ * range.step;
+        }
+    }
+
+    private static final RLexer3.TokenType[] OPERATORS = RLexer3.TokenType.values();
+    // Marks an operand stack entry whose value is the double at the same index in numbers[]
+    private static final Object UNBOXED = new Object();
+
+    private final Environment globals = new Environment(null);
+    // Function bodies are compiled on their first call
+    private final Map<Parser.BlockExpression, Chunk> bodies = new IdentityHashMap<>();
+    private MemoCache memo; // null unless memoization was asked for
+    private final Promise.Evaluator promises = (code, env) -> run((Chunk) code, env);
+
+    public VirtualMachine withMemo(MemoCache memo) {
+        this.memo = memo;
+        return this;
+    }
+
+    public void interpret(Parser.Expression root) {
+        try {
+            run(BytecodeCompiler.compile(root), globals);
+        } catch (RuntimeException e) {
+            System.err.println("[Runtime Error] " + e.getMessage());
+        } catch (StackOverflowError e) {
+            System.err.println("[Runtime Error] " + Operations.NESTED_TOO_DEEPLY);
+        }
+    }
+
+    private Object run(Chunk chunk, Environment env) {
+        int[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        Object[] stack = new Object[chunk.maxStack];
+        double[] numbers = new double[chunk.maxStack];
+        int sp = 0;
+        int pc = 0;
+        Environment current = env;
+        List<Object> keys = null; // Memo keys of the tail calls that took over; they all end with its result
+
+        while (true) {
+            switch (code[pc++]) {
+                case Chunk.CONST:
+                    stack[sp++] = constants[code[pc++]];
+                    break;
+                case Chunk.LOAD:
+                    stack[sp++] = current.getAt(code[pc], code[pc + 1], (String) constants[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case Chunk.LOAD_LOCAL:
+                    stack[sp++] = current.getAt(0, code[pc], (String) constants[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case Chunk.LOAD_NAME:
+                    stack[sp++] = current.get((String) constants[code[pc++]]);
+                    break;
+                case Chunk.DEFINE:
+                    current.defineAt(code[pc++], value(stack, numbers, sp - 1));
+                    break;
+                case Chunk.DEFINE_NAME:
+                    current.define((String) constants[code[pc++]], value(stack, numbers, sp - 1));
+                    break;
+                case Chunk.ASSIGN:
+                    current.assignAt(code[pc], code[pc + 1], (String) constants[code[pc + 2]], value(stack, numbers, sp - 1));
+                    pc += 3;
+                    break;
+                case Chunk.ASSIGN_NAME:
+                    current.assign((String) constants[code[pc++]], value(stack, numbers, sp - 1));
+                    break;
+                case Chunk.DEFINE_POP:
+                    current.defineAt(code[pc++], value(stack, numbers, --sp));
+                    stack[sp] = null;
+                    break;
+                case Chunk.ASSIGN_POP:
+                    current.assignAt(code[pc], code[pc + 1], (String) constants[code[pc + 2]], value(stack, numbers, --sp));
+                    stack[sp] = null;
+                    pc += 3;
+                    break;
+                case Chunk.ADD:
+                    if (numeric(stack, sp)) {
+                        sp--;
+                        numbers[sp - 1] = number(stack, numbers, sp - 1) + number(stack, numbers, sp);
+                        stack[sp - 1] = UNBOXED;
+                    } else {
+                        sp = generic(RLexer3.TokenType.PLUS, stack, numbers, sp);
+                    }
+                    break;
+                case Chunk.SUB:
+                    if (numeric(stack, sp)) {
+                        sp--;
+                        numbers[sp - 1] = number(stack, numbers, sp - 1) - number(stack, numbers, sp);
+                        stack[sp - 1] = UNBOXED;
+                    } else {
+                        sp = generic(RLexer3.TokenType.MINUS, stack, numbers, sp);
+                    }
+                    break;
+                case Chunk.MUL:
+                    if (numeric(stack, sp)) {
+                        sp--;
+                        numbers[sp - 1] = number(stack, numbers, sp - 1) * number(stack, numbers, sp);
+                        stack[sp - 1] = UNBOXED;
+                    } else {
+                        sp = generic(RLexer3.TokenType.MULTIPLY, stack, numbers, sp);
+                    }
+                    break;
+                case Chunk.DIV:
+                    if (numeric(stack, sp)) {
+                        sp--;
+                        numbers[sp - 1] = number(stack, numbers, sp - 1) / number(stack, numbers, sp);
+                        stack[sp - 1] = UNBOXED;
+                    } else {
+                        sp = generic(RLexer3.TokenType.DIVIDE, stack, numbers, sp);
+                    }
+                    break;
+                case Chunk.LT:
+                    sp = generic(RLexer3.TokenType.LT, stack, numbers, sp);
+                    break;
+                case Chunk.GT:
+                    sp = generic(RLexer3.TokenType.GT, stack, numbers, sp);
+                    break;
+                case Chunk.EQ:
+                    sp = generic(RLexer3.TokenType.EQ, stack, numbers, sp);
+                    break;
+                case Chunk.BINARY:
+                    sp = generic(OPERATORS[code[pc++]], stack, numbers, sp);
+                    break;
+                case Chunk.ADD_CONST: {
+                    Object right = constants[code[pc++]];
+                    if (stack[sp - 1] == UNBOXED || stack[sp - 1] instanceof Double) {
+                        numbers[sp - 1] = number(stack, numbers, sp - 1) + (Double) right;
+                        stack[sp - 1] = UNBOXED;
+                    } else {
+                        stack[sp - 1] = Operations.binary(RLexer3.TokenType.PLUS, stack[sp - 1], right);
+                    }
+                    break;
+                }
+                case Chunk.POP:
+                    stack[--sp] = null;
+                    break;
+                case Chunk.JUMP:
+                    pc = code[pc];
+                    break;
+                case Chunk.JUMP_IF_FALSE: {
+                    Object condition = value(stack, numbers, --sp);
+                    stack[sp] = null;
+                    pc = Operations.asBoolean(condition) ? pc + 1 : code[pc];
+                    break;
+                }
+                case Chunk.JUMP_IF_NOT_LT: {
+                    boolean holds = numeric(stack, sp)
+                        ? number(stack, numbers, sp - 2) < number(stack, numbers, sp - 1)
+                        : Operations.asBoolean(Operations.binary(RLexer3.TokenType.LT,
+                            value(stack, numbers, sp - 2), value(stack, numbers, sp - 1)));
+                    sp -= 2;
+                    pc = holds ? pc + 1 : code[pc];
+                    break;
+                }
+                case Chunk.JUMP_IF_NOT_GT: {
+                    boolean holds = numeric(stack, sp)
+                        ? number(stack, numbers, sp - 2) > number(stack, numbers, sp - 1)
+                        : Operations.asBoolean(Operations.binary(RLexer3.TokenType.GT,
+                            value(stack, numbers, sp - 2), value(stack, numbers, sp - 1)));
+                    sp -= 2;
+                    pc = holds ? pc + 1 : code[pc];
+                    break;
+                }
+                case Chunk.ENTER:
+                    current = newFrame(current, (String[]) constants[code[pc++]]);
+                    break;
+                case Chunk.LEAVE:
+                    current = current.getParent();
+                    break;
+                case Chunk.FOR_PREP: {
+                    stack[sp - 1] = new ForState(Operations.loopRange(value(stack, numbers, sp - 1)), code[pc++] != 0);
+                    break;
+                }
+                case Chunk.FOR_NEXT: {
+                    ForState state = (ForState) stack[sp - 1];
+                    if (state.done()) {
+                        stack[--sp] = null;
+                        pc = code[pc + 2];
+                        break;
+                    }
+                    current = iteration(current, (String[]) constants[code[pc]], (String) constants[code[pc + 1]], state);
+                    pc += 3;
+                    break;
+                }
+                case Chunk.FOR_LOOP: {
+                    stack[--sp] = null;
+                    current = current.getParent();
+                    ForState state = (ForState) stack[sp - 1];
+                    if (state.done()) {
+                        stack[--sp] = null;
+                        pc += 3;
+                        break;
+                    }
+                    current = iteration(current, (String[]) constants[code[pc]], (String) constants[code[pc + 1]], state);
+                    pc = code[pc + 2];
+                    break;
+                }
+                case Chunk.CLOSURE: {
+                    Parser.FunctionExpression funcExpr = (Parser.FunctionExpression) constants[code[pc++]];
+                    stack[sp++] = new FunctionValue(funcExpr.parameters, funcExpr.locals, funcExpr.body, current, funcExpr.pure);
+                    break;
+                }
+                case Chunk.PRINT:
+                    Operations.print(value(stack, numbers, --sp));
+                    stack[sp] = null;
+                    break;
+                case Chunk.GET_FUNCTION: {
+                    InlineCache cache = (InlineCache) constants[code[pc]];
+                    int argc = code[pc + 1];
+                    FunctionValue function = cache.function(current);
+                    if (argc != function.parameters.size()) {
+                        throw new RuntimeException("Function '" + cache.name() + "' expects " + function.parameters.size() + " arguments.");
+                    }
+                    stack[sp++] = function;
+                    pc += 2;
+                    break;
+                }
+                case Chunk.CALL: {
+                    int argc = code[pc];
+                    InlineCache cache = (InlineCache) constants[code[pc + 1]];
+                    pc += 2;
+                    int base = sp - argc - 1;
+                    FunctionValue function = (FunctionValue) stack[base];
+                    Object key = memoKey(function, stack, numbers, base, argc);
+                    Object result = key != null ? memo.get(key) : MemoCache.MISS;
+                    if (result == MemoCache.MISS) {
+                        Environment functionEnv = newFrame(function.closure, function.locals);
+                        for (int i = 0; i < argc; i++) {
+                            functionEnv.define(function.parameters.get(i), value(stack, numbers, base + 1 + i));
+                        }
+                        result = call(function, functionEnv, cache);
+                        if (key != null) memo.put(key, result);
+                    }
+                    Arrays.fill(stack, base + 1, sp, null);
+                    sp = base;
+                    stack[sp++] = result;
+                    break;
+                }
+                case Chunk.TAIL_CALL: {
+                    // Same as CALL, but the callee's chunk takes over this activation, so
+                    // tail recursion runs in constant Java stack
+                    int argc = code[pc];
+                    InlineCache cache = (InlineCache) constants[code[pc + 1]];
+                    int base = sp - argc - 1;
+                    FunctionValue function = (FunctionValue) stack[base];
+                    Object key = memoKey(function, stack, numbers, base, argc);
+                    if (key != null) {
+                        Object result = memo.get(key);
+                        if (result != MemoCache.MISS) return settle(keys, result);
+                        if (keys == null) keys = new ArrayList<>();
+                        keys.add(key);
+                    }
+                    Environment functionEnv = newFrame(function.closure, function.locals);
+                    for (int i = 0; i < argc; i++) {
+                        functionEnv.define(function.parameters.get(i), value(stack, numbers, base + 1 + i));
+                    }
+                    Chunk body = body(function, cache);
+                    Arrays.fill(stack, 0, sp, null);
+                    if (body.maxStack > stack.length) {
+                        stack = new Object[body.maxStack];
+                        numbers = new double[body.maxStack];
+                    }
+                    code = body.code;
+                    constants = body.constants;
+                    current = functionEnv;
+                    sp = 0;
+                    pc = 0;
+                    break;
+                }
+                case Chunk.PROMISE: {
+                    // The callee is below the arguments pushed before this one
+                    FunctionValue callee = (FunctionValue) stack[sp - code[pc + 2] - 1];
+                    Object value = Promise.pass((Parser.Expression) constants[code[pc + 1]], callee, promises,
+                        constants[code[pc]], current);
+                    stack[sp++] = value;
+                    pc += 3;
+                    break;
+                }
+                case Chunk.CALL_BUILTIN: {
+                    int argc = code[pc + 1];
+                    Object[] arguments = new Object[argc];
+                    for (int i = 0; i < argc; i++) {
+                        arguments[i] = value(stack, numbers, sp - argc + i);
+                        stack[sp - argc + i] = null;
+                    }
+                    sp -= argc;
+                    stack[sp++] = Builtins.call((String) constants[code[pc]], arguments);
+                    pc += 2;
+                    break;
+                }
+                case Chunk.FAIL:
+                    throw new RuntimeException((String) constants[code[pc]]);
+                case Chunk.RETURN:
+                    return settle(keys, value(stack, numbers, sp - 1));
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc - 1] + " at " + (pc - 1));
+            }
+        }
+    }
+
+    // Both operands on top of the stack are numbers, boxed or not
+    private static boolean numeric(Object[] stack, int sp) {
+        Object left = stack[sp - 2];
+        Object right = stack[sp - 1];
+        return (left == UNBOXED || left instanceof Double) && (right == UNBOXED || right instanceof Double);
+    }
+
+    private static double number(Object[] stack, double[] numbers, int i) {
+        Object value = stack[i];
+        return value == UNBOXED ? numbers[i] : (Double) value;
+    }
+
+    // The entry as an ordinary value; unboxed numbers are boxed only when they escape the stack
+    private static Object value(Object[] stack, double[] numbers, int i) {
+        Object value = stack[i];
+        return value == UNBOXED ? (Object) numbers[i] : value;
+    }
+
+    private static int generic(RLexer3.TokenType operator, Object[] stack, double[] numbers, int sp) {
+        Object left = value(stack, numbers, sp - 2);
+        Object right = value(stack, numbers, sp - 1);
+        stack[sp - 2] = Operations.binary(operator, left, right);
+        stack[sp - 1] = null;
+        return sp - 1;
+    }
+
+    // The memo key for a call whose callee sits at stack[base], followed by its arguments.
+    // Promises among them are forced, as the key needs their values.
+    private Object memoKey(FunctionValue function, Object[] stack, double[] numbers, int base, int argc) {
+        if (memo == null || !function.pure) return null;
+        Object[] values = new Object[argc];
+        for (int i = 0; i < argc; i++) {
+            values[i] = value(stack, numbers, base + 1 + i);
+            if (values[i] instanceof Promise promise) values[i] = stack[base + 1 + i] = promise.force();
+        }
+        return memo.key(function, values);
+    }
+
+    // The result of an activation, stored under the memo keys of the tail calls that ran in it
+    private Object settle(List<Object> keys, Object result) {
+        if (keys != null) {
+            for (Object key : keys) memo.put(key, result);
+        }
+        return result;
+    }
+
+    private Object call(FunctionValue function, Environment functionEnv, InlineCache cache) {
+        try {
+            return run(body(function, cache), functionEnv);
+        } catch (ReturnValue ret) {
+            return ret.value;
+        }
+    }
+
+    private Chunk body(FunctionValue function, InlineCache cache) {
+        Chunk body = (Chunk) cache.target(function.body);
+        if (body == null) {
+            body = bodies.get(function.body);
+            if (body == null) {
+                body = BytecodeCompiler.compileFunction(function.body);
+                bodies.put(function.body, body);
+            }
+            cache.remember(function.body, body);
+        }
+        return body;
+    }
+
+    private static Environment iteration(Environment parent, String[] locals, String variable, ForState state) {
+        double value = state.advance();
+        Environment loopScope = state.frame;
+        if (loopScope != null && !loopScope.isCaptured()) {
+            loopScope.reset();
+        } else {
+            loopScope = newFrame(parent, locals);
+            if (state.reusesFrame) state.frame = loopScope;
+        }
+        if (locals != null) loopScope.defineAt(0, value); // The loop variable is declared first
+        else loopScope.define(variable, value);
+        return loopScope;
+    }
+
+    private static Environment newFrame(Environment parent, String[] locals) {
+        return locals != null ? new Environment(parent, locals) : new Environment(parent);
+    }
+}
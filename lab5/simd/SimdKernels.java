@@ -0,0 +1,172 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Vector API versions of the kernels. Kept out of the main sources because the incubator
+// module has to be added explicitly when compiling and running:
+//   javac -d out *.java
+//   javac --add-modules jdk.incubator.vector -cp out -d out simd/SimdKernels.java
+//   java --add-modules jdk.incubator.vector -cp out Main
+// VectorOps falls back to ScalarKernels when this class or the module is missing.
+// Every loop names its lane operation directly: C2 only compiles a Vector API call to
+// SIMD instructions when the operation is a constant.
+public final class SimdKernels implements VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double[] left, double[] right, double[] out, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        switch (operator) {
+            case PLUS:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).add(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] + right[i];
+                break;
+            case MINUS:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).sub(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] - right[i];
+                break;
+            case MULTIPLY:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).mul(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] * right[i];
+                break;
+            case DIVIDE:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).div(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] / right[i];
+                break;
+            default:
+                throw ScalarKernels.unsupported(operator);
+        }
+    }
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double[] left, double right, double[] out, int from, int to) {
+        DoubleVector r = DoubleVector.broadcast(SPECIES, right);
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        switch (operator) {
+            case PLUS:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).add(r).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] + right;
+                break;
+            case MINUS:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).sub(r).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] - right;
+                break;
+            case MULTIPLY:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).mul(r).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] * right;
+                break;
+            case DIVIDE:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).div(r).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] / right;
+                break;
+            default:
+                throw ScalarKernels.unsupported(operator);
+        }
+    }
+
+    @Override
+    public void arithmetic(RLexer3.TokenType operator, double left, double[] right, double[] out, int from, int to) {
+        DoubleVector l = DoubleVector.broadcast(SPECIES, left);
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        switch (operator) {
+            case PLUS:
+                for (; i < bound; i += LANES) l.add(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left + right[i];
+                break;
+            case MINUS:
+                for (; i < bound; i += LANES) l.sub(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left - right[i];
+                break;
+            case MULTIPLY:
+                for (; i < bound; i += LANES) l.mul(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left * right[i];
+                break;
+            case DIVIDE:
+                for (; i < bound; i += LANES) l.div(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left / right[i];
+                break;
+            default:
+                throw ScalarKernels.unsupported(operator);
+        }
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double[] left, double[] right, boolean[] out, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        switch (operator) {
+            case LT:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).compare(VectorOperators.LT, DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] < right[i];
+                break;
+            case GT:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).compare(VectorOperators.GT, DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] > right[i];
+                break;
+            case EQ:
+                for (; i < bound; i += LANES) same(DoubleVector.fromArray(SPECIES, left, i), DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = Double.compare(left[i], right[i]) == 0;
+                break;
+            default:
+                throw ScalarKernels.unsupported(operator);
+        }
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double[] left, double right, boolean[] out, int from, int to) {
+        DoubleVector r = DoubleVector.broadcast(SPECIES, right);
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        switch (operator) {
+            case LT:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).compare(VectorOperators.LT, r).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] < right;
+                break;
+            case GT:
+                for (; i < bound; i += LANES) DoubleVector.fromArray(SPECIES, left, i).compare(VectorOperators.GT, r).intoArray(out, i);
+                for (; i < to; i++) out[i] = left[i] > right;
+                break;
+            case EQ:
+                for (; i < bound; i += LANES) same(DoubleVector.fromArray(SPECIES, left, i), r).intoArray(out, i);
+                for (; i < to; i++) out[i] = Double.compare(left[i], right) == 0;
+                break;
+            default:
+                throw ScalarKernels.unsupported(operator);
+        }
+    }
+
+    @Override
+    public void compare(RLexer3.TokenType operator, double left, double[] right, boolean[] out, int from, int to) {
+        DoubleVector l = DoubleVector.broadcast(SPECIES, left);
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        switch (operator) {
+            case LT:
+                for (; i < bound; i += LANES) l.compare(VectorOperators.LT, DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left < right[i];
+                break;
+            case GT:
+                for (; i < bound; i += LANES) l.compare(VectorOperators.GT, DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = left > right[i];
+                break;
+            case EQ:
+                for (; i < bound; i += LANES) same(l, DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+                for (; i < to; i++) out[i] = Double.compare(left, right[i]) == 0;
+                break;
+            default:
+                throw ScalarKernels.unsupported(operator);
+        }
+    }
+
+    // Lanes where Double.compare would give 0, as EQ does on scalars: the same bits, or NaN on
+    // both sides. So 0 and -0 differ, and NaN equals NaN.
+    private static VectorMask<Double> same(DoubleVector left, DoubleVector right) {
+        VectorMask<Double> nan = left.test(VectorOperators.IS_NAN).and(right.test(VectorOperators.IS_NAN));
+        return left.reinterpretAsLongs().compare(VectorOperators.EQ, right.reinterpretAsLongs()).cast(SPECIES).or(nan);
+    }
+}